@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+
+/**
+ * Formatea cantidades de dinero igual que un NumberFormat, pero sin sus
+ * inconvenientes: se puede utilizar desde cualquier thread y las cantidades
+ * en unidades mínimas de la moneda (ver Money) se formatean directamente,
+ * dígito a dígito, en un buffer de chars (uno por thread) que se reutiliza:
+ * lo único que se crea es el String resultante.
+ * <p>
+ * El camino rápido reproduce lo que hace el DecimalFormat (prefijos, sufijos,
+ * separadores y tamaño de los grupos). Al crearlo se compara con el propio
+ * DecimalFormat para varias cantidades: si alguna no coincide (algún locale
+ * raro), todo se formatea con el NumberFormat (protegido con su monitor).
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class CurrencyFormatter
+{
+    // Cantidades con las que se comprueba que el camino rápido coincide con el NumberFormat
+    private static final long[] anCHECK = { 0, 1, 7, -7, 99, 100, 1234, -1234, 100000, 1234567, -987654321, 123456789012345L };
+
+    private final NumberFormat        format;    // Para cuando no se puede ir por el camino rápido
+    private final int                 nDigits;
+    private final boolean             bFast;
+    private final char[]              acPosPrefix;
+    private final char[]              acPosSuffix;
+    private final char[]              acNegPrefix;
+    private final char[]              acNegSuffix;
+    private final char                cZero;
+    private final char                cDecimal;
+    private final char                cGroup;
+    private final int                 nGroupSize;    // 0 == no se agrupan los dígitos
+    private final ThreadLocal<char[]> buffer;
+
+    //------------------------------------------------------------------------//
+
+    /**
+     * @param format El formato a reproducir (se le fijan los decimales).
+     * @param nDigits Nº de decimales (los de la moneda: ver Money).
+     */
+    CurrencyFormatter( NumberFormat format, int nDigits )
+    {
+        format.setMinimumFractionDigits( nDigits );
+        format.setMaximumFractionDigits( nDigits );
+
+        this.format  = format;
+        this.nDigits = nDigits;
+
+        if( format instanceof DecimalFormat )
+        {
+            DecimalFormat        df        = (DecimalFormat) format;
+            DecimalFormatSymbols dfs       = df.getDecimalFormatSymbols();
+            boolean              bCurrency = (df.toPattern().indexOf( '\u00A4' ) > -1);
+
+            acPosPrefix = df.getPositivePrefix().toCharArray();
+            acPosSuffix = df.getPositiveSuffix().toCharArray();
+            acNegPrefix = df.getNegativePrefix().toCharArray();
+            acNegSuffix = df.getNegativeSuffix().toCharArray();
+            cZero       = dfs.getZeroDigit();
+            cDecimal    = (bCurrency ? dfs.getMonetaryDecimalSeparator() : dfs.getDecimalSeparator());
+            cGroup      = dfs.getGroupingSeparator();
+            nGroupSize  = (df.isGroupingUsed() ? df.getGroupingSize() : 0);
+        }
+        else
+        {
+            acPosPrefix = acPosSuffix = acNegPrefix = acNegSuffix = new char[0];
+            cZero       = '0';
+            cDecimal    = '.';
+            cGroup      = ',';
+            nGroupSize  = 0;
+        }
+
+        final int nSize = Math.max( acPosPrefix.length + acPosSuffix.length, acNegPrefix.length + acNegSuffix.length ) +
+                          20 + 19 + 1;    // Dígitos de un long, separadores de grupo (como mucho uno por dígito) y el decimal
+
+        buffer = new ThreadLocal<char[]>()
+                 {
+                     @Override
+                     protected char[] initialValue()
+                     {
+                         return new char[ nSize ];
+                     }
+                 };
+
+        bFast = (format instanceof DecimalFormat) && isFastPathValid();
+    }
+
+    /**
+     * @param nAmount Cantidad en unidades mínimas de la moneda.
+     * @return La cantidad formateada.
+     */
+    String format( long nAmount )
+    {
+        if( ! bFast || nAmount == Long.MIN_VALUE )    // -Long.MIN_VALUE no cabe en un long
+        {
+            return formatSlow( BigDecimal.valueOf( nAmount, nDigits ) );
+        }
+
+        return formatFast( nAmount );
+    }
+
+    /**
+     * @param nAmount Cantidad.
+     * @return La cantidad formateada.
+     */
+    String format( BigDecimal nAmount )
+    {
+        // Si tiene más decimales que la moneda hay que redondear: lo hace el NumberFormat
+        if( bFast && nAmount.scale() <= nDigits && nAmount.precision() - nAmount.scale() + nDigits < 19 )
+        {
+            return formatFast( nAmount.movePointRight( nDigits ).longValue() );
+        }
+
+        return formatSlow( nAmount );
+    }
+
+    //------------------------------------------------------------------------//
+
+    private String formatSlow( BigDecimal nAmount )
+    {
+        synchronized( format )    // NumberFormat no es thread-safe
+        {
+            return format.format( nAmount );
+        }
+    }
+
+    // Se rellena el buffer de derecha a izquierda
+    private String formatFast( long nAmount )
+    {
+        char[]  ac     = buffer.get();
+        int     nPos   = ac.length;
+        boolean bNeg   = (nAmount < 0);
+        char[]  acPre  = (bNeg ? acNegPrefix : acPosPrefix);
+        char[]  acSuf  = (bNeg ? acNegSuffix : acPosSuffix);
+        long    nValue = (bNeg ? -nAmount : nAmount);
+
+        nPos -= acSuf.length;
+        System.arraycopy( acSuf, 0, ac, nPos, acSuf.length );
+
+        for( int n = 0; n < nDigits; n++ )
+        {
+            ac[--nPos] = (char) (cZero + (int) (nValue % 10));
+            nValue /= 10;
+        }
+
+        if( nDigits > 0 )
+        {
+            ac[--nPos] = cDecimal;
+        }
+
+        int nCount = 0;
+
+        do
+        {
+            if( nGroupSize > 0 && nCount > 0 && nCount % nGroupSize == 0 )
+            {
+                ac[--nPos] = cGroup;
+            }
+
+            ac[--nPos] = (char) (cZero + (int) (nValue % 10));
+            nValue /= 10;
+            nCount++;
+        }
+        while( nValue > 0 );
+
+        nPos -= acPre.length;
+        System.arraycopy( acPre, 0, ac, nPos, acPre.length );
+
+        return new String( ac, nPos, ac.length - nPos );
+    }
+
+    private boolean isFastPathValid()
+    {
+        for( long nAmount : anCHECK )
+        {
+            if( ! formatFast( nAmount ).equals( formatSlow( BigDecimal.valueOf( nAmount, nDigits ) ) ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
\ No newline at end of file
@@ -19,10 +19,10 @@
 package com.peyrona.tapas;
 
 import com.peyrona.tapas.mainFrame.MainFrame;
+import com.peyrona.tapas.persistence.AsyncDataProvider;
 import com.peyrona.tapas.persistence.DataProvider;
+import com.peyrona.tapas.persistence.OpenBillsSnapshot;
 import java.awt.*;
-import java.awt.event.WindowAdapter;
-import java.awt.event.WindowEvent;
 import java.util.logging.Level;
 import javax.swing.*;
 import javax.swing.UIManager.LookAndFeelInfo;
@@ -74,6 +74,7 @@ public final class Main
             {
                 DataProvider.setDataSourceType( DataProvider.DataSources.DerbyEmbedded );
                 DataProvider.getInstance().connect();
+                OpenBillsSnapshot.getInstance();    // Lee las cuentas que quedaron abiertas
             }
         };
         tDB.start();
@@ -86,14 +87,6 @@ public final class Main
         final MainFrame frame = MainFrame.getInstance();
                         frame.pack();
                         frame.setExtendedState( JFrame.MAXIMIZED_BOTH );
-                        frame.addWindowListener( new WindowAdapter()
-                        {
-                            @Override
-                            public void windowOpened( WindowEvent we )
-                            {
-                                splash.dispose();
-                            }
-                        } );
 
         // Arrancamos el GUI dentro del Event Dispath Thread
         EventQueue.invokeLater( new Runnable()
@@ -106,6 +99,10 @@ public final class Main
                 // Esperamos a que termine la Thread de inicialización de DataProvider
                 try{ tDB.join(); } catch( InterruptedException ex ) { Utils.printError( ex ); }
 
+                // Las cuentas que estaban abiertas cuando se cerró (o murió) la aplicación
+                frame.openAccounts( OpenBillsSnapshot.getInstance().restore() );
+                splash.dispose();
+
                 // NEXT: Sistema de plugins ----------------------------
                 // Añadimos los plugins
                 // PluginManager.getInstance().init( this );
@@ -150,6 +147,9 @@ public final class Main
         // PluginManager.getInstance().destroy( this );
         //------------------------------------------------------
 
+        // Primero se espera a que terminen las escrituras que estén en marcha
+        AsyncDataProvider.getInstance().shutdown();
+
         // Nos aseguramos de que al cerrar la app, la DB se cierra apropiadamente
         DataProvider.getInstance().disconnect();
     }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+import java.util.Locale;
+
+/**
+ * Cantidades de dinero en coma fija: un long con el importe en la unidad
+ * mínima de la moneda del default locale (céntimos en el caso del Euro).
+ * <p>
+ * Los precios de las líneas de los tickets y los totales se suman y se
+ * multiplican miles de veces (cada vez que se pinta o se toca una cuenta):
+ * con un long no se crea ningún objeto y el resultado es exacto. BigDecimal
+ * sólo se utiliza en los extremos: al leer o grabar en la DB y al formatear.
+ * <p>
+ * Al pasar de BigDecimal a unidades mínimas se redondea a los decimales de
+ * la moneda, con el criterio habitual en comercio (la mitad hacia arriba).
+ *
+ * @author Francisco Morero Peyrona
+ */
+public final class Money
+{
+    /** Nº de decimales de la moneda (2 para el Euro). */
+    public static final int nFRACTION_DIGITS = getCurrencyFractionDigits();
+
+    public static final long ZERO = 0L;
+
+    //------------------------------------------------------------------------//
+
+    /**
+     * Pasa una cantidad a unidades mínimas, redondeando (la mitad hacia arriba)
+     * a los decimales de la moneda.
+     *
+     * @param nAmount La cantidad (null se considera 0).
+     * @return La cantidad en unidades mínimas.
+     * @throws ArithmeticException Si no cabe en un long.
+     */
+    public static long valueOf( BigDecimal nAmount )
+    {
+        if( nAmount == null )
+        {
+            return ZERO;
+        }
+
+        return nAmount.movePointRight( nFRACTION_DIGITS ).setScale( 0, RoundingMode.HALF_UP ).longValueExact();
+    }
+
+    /**
+     * Interpreta una cantidad escrita con '.' como separador decimal (p.ej. "2.5").
+     *
+     * @param sAmount La cantidad.
+     * @return La cantidad en unidades mínimas.
+     * @throws NumberFormatException Si no es un número o no cabe en un long.
+     */
+    public static long parse( String sAmount )
+    {
+        try
+        {
+            return valueOf( new BigDecimal( sAmount ) );
+        }
+        catch( ArithmeticException ae )    // Para quien lo llama es un número que no vale (p.ej. se teclearon demasiados dígitos)
+        {
+            throw new NumberFormatException( "Cantidad demasiado grande: "+ sAmount );
+        }
+    }
+
+    /**
+     * Pasa una cantidad en unidades mínimas a BigDecimal (para la DB o para
+     * formatearla).
+     *
+     * @param nAmount La cantidad en unidades mínimas.
+     * @return La cantidad con tantos decimales como la moneda.
+     */
+    public static BigDecimal toBigDecimal( long nAmount )
+    {
+        return BigDecimal.valueOf( nAmount, nFRACTION_DIGITS );
+    }
+
+    /**
+     * Importe de una línea: precio por cantidad (exacto: no hay que redondear).
+     *
+     * @param nPrice El precio en unidades mínimas.
+     * @param nQuantity La cantidad.
+     * @return El importe en unidades mínimas.
+     */
+    public static long multiply( long nPrice, int nQuantity )
+    {
+        return nPrice * nQuantity;
+    }
+
+    //------------------------------------------------------------------------//
+
+    private Money()
+    {
+        // Sólo métodos estáticos
+    }
+
+    private static int getCurrencyFractionDigits()
+    {
+        int nDigits = Currency.getInstance( Locale.getDefault() ).getDefaultFractionDigits();
+
+        return ((nDigits < 0) ? 2 : nDigits);    // -1 para pseudo-monedas (p.ej. XXX)
+    }
+}
\ No newline at end of file
@@ -19,20 +19,22 @@
 package com.peyrona.tapas;
 
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Blob;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
-import java.util.Currency;
-import java.util.Locale;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -51,13 +53,14 @@ public final class Utils
     public static final int nEXIT_LAF_ERROR =  1;
     public static final int nEXIT_DB_ERROR  =  2;
 
-    private static final Logger       logger          = Logger.getLogger( "Tapas.Logger" );
+    private static final Logger            logger          = Logger.getLogger( "Tapas.Logger" );
 
-    private static final NumberFormat nfCurrency      = NumberFormat.getCurrencyInstance();
-    private static final NumberFormat nfNoSymbol      = NumberFormat.getInstance();
+    // Thread-safe (ver CurrencyFormatter)
+    private static final CurrencyFormatter cfCurrency      = new CurrencyFormatter( NumberFormat.getCurrencyInstance(), Money.nFRACTION_DIGITS );
+    private static final CurrencyFormatter cfNoSymbol      = new CurrencyFormatter( NumberFormat.getInstance(),         Money.nFRACTION_DIGITS );
 
-    public  static final char         cDecimalSep     = (new DecimalFormatSymbols()).getMonetaryDecimalSeparator();
-    public  static final String       sCurrencySymbol = (new DecimalFormatSymbols()).getCurrencySymbol();
+    public  static final char              cDecimalSep     = (new DecimalFormatSymbols()).getMonetaryDecimalSeparator();
+    public  static final String            sCurrencySymbol = (new DecimalFormatSymbols()).getCurrencySymbol();
 
     //------------------------------------------------------------------------//
 
@@ -73,25 +76,20 @@ public final class Utils
         {
             // Nada que hacer
         }
-
-        // Inicializamos apropiadamente la moneda
-        int nDigits = Currency.getInstance( Locale.getDefault() ).getDefaultFractionDigits();
-
-        Utils.nfNoSymbol.setMinimumFractionDigits( nDigits );
-        Utils.nfNoSymbol.setMaximumFractionDigits( nDigits );
     }
 
     //------------------------------------------------------------------------//
 
     /**
      * Formatea cantidades como moneda utilizando el default locale.
+     * Se puede invocar desde cualquier thread.
      *
      * @param nAmount
      * @return
      */
     public static String formatAsCurrency( BigDecimal nAmount )
     {
-        return nfCurrency.format( nAmount );
+        return cfCurrency.format( nAmount );
     }
 
     /**
@@ -102,7 +100,31 @@ public final class Utils
      */
     public static String formatLikeCurrency( BigDecimal nAmount )
     {
-        return nfNoSymbol.format( nAmount );
+        return cfNoSymbol.format( nAmount );
+    }
+
+    /**
+     * Como formatAsCurrency( BigDecimal ) para cantidades en unidades mínimas
+     * de la moneda (ver Money).
+     *
+     * @param nAmount
+     * @return
+     */
+    public static String formatAsCurrency( long nAmount )
+    {
+        return cfCurrency.format( nAmount );
+    }
+
+    /**
+     * Como formatLikeCurrency( BigDecimal ) para cantidades en unidades mínimas
+     * de la moneda (ver Money).
+     *
+     * @param nAmount
+     * @return
+     */
+    public static String formatLikeCurrency( long nAmount )
+    {
+        return cfNoSymbol.format( nAmount );
     }
 
     public static boolean isEmpty( String s )
@@ -150,6 +172,11 @@ public final class Utils
         }
     }
 
+    public static void printInfo( String sMessage )
+    {
+        logger.info( sMessage );
+    }
+
     public static int getCores()
     {   // Este valor puede camiar de una invocación a otra
         return Runtime.getRuntime().availableProcessors();
@@ -234,6 +261,106 @@ public final class Utils
         return baos.toByteArray();
     }
 
+    /**
+     * Retorna la imagen reducida a width x height, o la misma imagen si ya cabe
+     * en ese tamaño.
+     * <p>
+     * A diferencia de Image.getScaledInstance(...) (que es lento y asíncrono),
+     * se dibuja directamente en un BufferedImage, reduciéndolo a la mitad
+     * sucesivamente (interpolación bilineal) hasta llegar al tamaño final: la
+     * calidad es parecida a la de SCALE_SMOOTH en una fracción del tiempo.
+     *
+     * @param image La imagen original.
+     * @param width Ancho máximo.
+     * @param height Alto máximo.
+     * @return La imagen reducida.
+     */
+    public static Image getThumbnail( Image image, int width, int height )
+    {
+        int nWidth  = image.getWidth(  null );
+        int nHeight = image.getHeight( null );
+
+        if( nWidth <= width && nHeight <= height )
+        {
+            return image;
+        }
+
+        Image thumbnail = image;
+
+        do
+        {
+            nWidth  = Math.max( nWidth  / 2, width  );
+            nHeight = Math.max( nHeight / 2, height );
+
+            BufferedImage bimage = new BufferedImage( nWidth, nHeight, BufferedImage.TYPE_INT_ARGB );
+            Graphics2D    g2d    = bimage.createGraphics();
+                          g2d.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+                          g2d.drawImage( thumbnail, 0, 0, nWidth, nHeight, null );
+                          g2d.dispose();
+
+            thumbnail = bimage;
+        }
+        while( nWidth > width || nHeight > height );
+
+        return thumbnail;
+    }
+
+    /**
+     * Retorna un hash (SHA-1 en hexadecimal) del contenido de la imagen: de sus
+     * dimensiones y de sus pixels, no de cómo esté codificada. Dos imágenes
+     * iguales tienen el mismo hash aunque procedan de ficheros distintos.
+     *
+     * @param image La imagen (puede ser null).
+     * @return El hash o null si la imagen es null o está vacía.
+     */
+    public static String getImageHash( Image image )
+    {
+        if( image == null || image.getWidth( null ) < 1 || image.getHeight( null ) < 1 )
+        {
+            return null;
+        }
+
+        BufferedImage bimage = getBufferedImageFromImage( image );
+        int           width  = bimage.getWidth();
+        int           height = bimage.getHeight();
+        int[]         anRGB  = bimage.getRGB( 0, 0, width, height, null, 0, width );
+        byte[]        abData = new byte[ (anRGB.length + 2) * 4 ];
+
+        putInt( abData, 0, width  );
+        putInt( abData, 4, height );
+
+        for( int n = 0; n < anRGB.length; n++ )
+        {
+            putInt( abData, (n + 2) * 4, anRGB[n] );
+        }
+
+        try
+        {
+            byte[]        abHash = MessageDigest.getInstance( "SHA-1" ).digest( abData );
+            StringBuilder sb     = new StringBuilder( abHash.length * 2 );
+
+            for( byte b : abHash )
+            {
+                sb.append( Character.forDigit( (b >> 4) & 0xF, 16 ) )
+                  .append( Character.forDigit(  b       & 0xF, 16 ) );
+            }
+
+            return sb.toString();
+        }
+        catch( NoSuchAlgorithmException exc )    // Todas las JVM tienen SHA-1
+        {
+            throw new IllegalStateException( exc );
+        }
+    }
+
+    private static void putInt( byte[] ab, int nOffset, int nValue )
+    {
+        ab[nOffset    ] = (byte) (nValue >>> 24);
+        ab[nOffset + 1] = (byte) (nValue >>> 16);
+        ab[nOffset + 2] = (byte) (nValue >>>  8);
+        ab[nOffset + 3] = (byte)  nValue;
+    }
+
     private static BufferedImage getBufferedImageFromImage( Image img )
     {
         // Crea un objeto BufferedImage con el ancho y alto de la Image
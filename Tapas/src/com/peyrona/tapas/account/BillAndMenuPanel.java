@@ -84,4 +84,10 @@ public final class BillAndMenuPanel extends JPanel
     {
         return pnlBill.getBill();
     }
+
+    // Ver BillPanel.getTotal()
+    public long getTotal()
+    {
+        return pnlBill.getTotal();
+    }
 }
\ No newline at end of file
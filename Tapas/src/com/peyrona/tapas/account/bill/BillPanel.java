@@ -76,6 +76,15 @@ public final class BillPanel extends JPanel
         return bill;
     }
 
+    /**
+     * @return El total de la cuenta (en unidades mínimas de la moneda): a
+     *         diferencia de getBill().getTotal(), no recorre las líneas.
+     */
+    public long getTotal()
+    {
+        return pnlItems.getTotal();
+    }
+
     public String getCustomerName()
     {
         return pnlCustomer.getCustomerName();
@@ -91,9 +100,12 @@ public final class BillPanel extends JPanel
 
     private void updateButtons()
     {
-        pnlPayMode.setEnabled( pnlItems.getTotal().doubleValue() > 0 );
+        long nTotal = pnlItems.getTotal();
+
+        pnlPayMode.setEnabled( nTotal > 0 );
         pnlEditItems.setEnabled( pnlItems.isRowSelected() );
-        pnlDisplay.setAmount( pnlItems.getTotal() );
+        pnlEditItems.setHistoryEnabled( pnlItems.canUndo(), pnlItems.canRedo() );
+        pnlDisplay.setAmount( nTotal );
     }
 
     private void initComponents()
@@ -105,9 +117,10 @@ public final class BillPanel extends JPanel
         pnlEditItems  = new ItemEditorPanel();
         pnlDisplay    = new TotalDisplayPanel();
 
-        pnlPayMode.setEnabled( pnlItems.getTotal().doubleValue() > 0 );
+        pnlPayMode.setEnabled( pnlItems.getTotal() > 0 );
         pnlNumericPad.setVisible( false );
         pnlEditItems.setEnabled( pnlItems.isRowSelected() );
+        pnlEditItems.setHistoryEnabled( false, false );
 
         JPanel pnlButtonsAndDisplay = new JPanel( new BorderLayout( 30, 0 ) );
                pnlButtonsAndDisplay.setBorder( new EmptyBorder( 20, 0, 10, 0 ) );
@@ -138,14 +151,20 @@ public final class BillPanel extends JPanel
     //------------------------------------------------------------------------//
     private final class ItemEditorPanel extends JPanel
     {
+        // No dependen de la línea resaltada sino de si hay algo que deshacer o rehacer
+        private Button4Item btnUndo = new Button4Item( Button4Item.CMD_UNDO, "Deshace el último cambio en las líneas" );
+        private Button4Item btnRedo = new Button4Item( Button4Item.CMD_REDO, "Rehace el último cambio deshecho" );
+
         ItemEditorPanel()
         {
-            super( new GridLayout( 1, 4, 4, 0 ) );
+            super( new GridLayout( 1, 6, 4, 0 ) );
 
+            add( btnUndo );
             add( new Button4Item( Button4Item.CMD_DEL  , "Elimina la línea resaltada" ) );
             add( new Button4Item( Button4Item.CMD_EDIT , "Edita el precio de la línea resaltada" ) );
             add( new Button4Item( Button4Item.CMD_MINUS, "Decrementa las unidades de la línea resaltada" ) );
             add( new Button4Item( Button4Item.CMD_PLUS , "Incrementa las unidades de la línea resaltada" ) );
+            add( btnRedo );
         }
 
         @Override
@@ -155,9 +174,16 @@ public final class BillPanel extends JPanel
 
             for( Component c : getComponents() )
             {
-                c.setEnabled( b );
+                if( c != btnUndo && c != btnRedo )
+                    c.setEnabled( b );
             }
         }
+
+        void setHistoryEnabled( boolean bUndo, boolean bRedo )
+        {
+            btnUndo.setEnabled( bUndo );
+            btnRedo.setEnabled( bRedo );
+        }
     }
 
     //------------------------------------------------------------------------//
@@ -174,6 +200,7 @@ public final class BillPanel extends JPanel
                 BillPanel.this.pnlPayMode.setEnabled( false );
                 BillPanel.this.pnlNumericPad.setVisible( true );
                 BillPanel.this.pnlEditItems.setEnabled( false );
+                BillPanel.this.pnlEditItems.setHistoryEnabled( false, false );
                 BillPanel.this.pnlItems.startEditingPrice();
                 BillPanel.this.pnlItems.updateEditingPrice( "0" );
                 BillPanel.this.pnlNumericPad.addActionListener( this );
@@ -185,7 +212,8 @@ public final class BillPanel extends JPanel
             BillPanel.this.pnlPayMode.setEnabled( true );
             BillPanel.this.pnlNumericPad.setVisible( false );
             BillPanel.this.pnlEditItems.setEnabled( true );
-            BillPanel.this.pnlItems.stopEditingPrice();
+            BillPanel.this.pnlItems.stopEditingPrice();    // Antes de mirar el histórico: es quien decide si hay algo que deshacer
+            BillPanel.this.pnlEditItems.setHistoryEnabled( pnlItems.canUndo(), pnlItems.canRedo() );
             BillPanel.this.pnlDisplay.setAmount( pnlItems.getTotal() );
             BillPanel.this.pnlNumericPad.removeActionListener( this );
         }
@@ -217,7 +245,8 @@ public final class BillPanel extends JPanel
 
     //------------------------------------------------------------------------//
     // Inner Class: Los botones para editar las líneas del ticket: incrementar y
-    //              decrementar las unidades, cambiar el precio o borrarla.
+    //              decrementar las unidades, cambiar el precio o borrarla; y
+    //              para deshacer y rehacer esos cambios.
     //------------------------------------------------------------------------//
     private final class Button4Item extends JButton implements ActionListener
     {
@@ -225,6 +254,8 @@ public final class BillPanel extends JPanel
         final static String CMD_PLUS  = "item_plus";
         final static String CMD_EDIT  = "item_edit";
         final static String CMD_DEL   = "item_del";
+        final static String CMD_UNDO  = "item_undo";
+        final static String CMD_REDO  = "item_redo";
 
         Button4Item( String sActionCommand, String sToolTip )
         {
@@ -253,6 +284,8 @@ public final class BillPanel extends JPanel
             else if( sCmd.equals( CMD_PLUS  ) )  BillPanel.this.pnlItems.incrementQuantity();
             else if( sCmd.equals( CMD_EDIT  ) )  (new ItemPriceEditor()).startEditing();
             else if( sCmd.equals( CMD_DEL   ) )  BillPanel.this.pnlItems.deleteLine();
+            else if( sCmd.equals( CMD_UNDO  ) )  BillPanel.this.pnlItems.undo();
+            else if( sCmd.equals( CMD_REDO  ) )  BillPanel.this.pnlItems.redo();
 
             BillPanel.this.updateButtons();
         }
@@ -18,13 +18,17 @@
 
 package com.peyrona.tapas.account.bill;
 
+import com.peyrona.tapas.Money;
 import com.peyrona.tapas.Utils;
 import com.peyrona.tapas.persistence.Product;
 import com.peyrona.tapas.persistence.BillLine;
 import java.awt.*;
-import java.math.BigDecimal;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import javax.swing.JLabel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
@@ -48,9 +52,17 @@ final class ItemsPanel extends JScrollPane
     private final static int nCOL_AMOUNT   = 3;
     private final static int nCOL_COUNT    = 4;    // Number of columns
 
+    // Si es true, volver a pedir un producto (con el mismo precio) suma una unidad
+    // a su línea en lugar de añadir una nueva: diez cañas son una línea, no diez
+    private final static boolean bCOALESCE = Boolean.getBoolean( "tapas.bill.coalesce" );
+
+    // Nº de cambios que se pueden deshacer (los más antiguos se olvidan)
+    private final static int nUNDO_LEVELS = Integer.getInteger( "tapas.bill.undo_levels", 100 );
+
     private JTable tblPaper = new JTable();
 
-    private int nRowEditing = -1;     // La fila que se está editando
+    private int   nRowEditing = -1;          // La fila que se está editando
+    private State stateBeforeEditing = null;  // Las líneas antes de editar el precio (para deshacer)
 
     //------------------------------------------------------------------------//
 
@@ -58,26 +70,47 @@ final class ItemsPanel extends JScrollPane
     {
         initComponents();
 
+        // Se conservan las líneas originales (y con ellas su id): así al
+        // actualizar el ticket sólo se graban las líneas que han cambiado.
         for( BillLine line : lstBillLines )
         {
-            addLine( line.getQuantity(), line.getItem(), line.getPrice() );
+            addLine( line );
         }
     }
 
     void add( Product product )
     {
-        addLine( 1, product.getDescription(), product.getPrice() );
+        String    sItem  = product.getDescription();
+        long      nPrice = Money.valueOf( product.getPrice() );
+        DataModel model  = (DataModel) tblPaper.getModel();
+
+        model.checkpoint();
+
+        if( bCOALESCE )
+        {
+            int nRow = model.findLine( sItem, nPrice );
+
+            if( nRow > -1 )
+            {
+                model.changeQuantityInRow( nRow, 1 );
+                selectRow( nRow );
+                return;
+            }
+        }
+
+        addLine( 1, sItem, nPrice );
     }
 
-    void addLine( int nQuantity, String sItem, BigDecimal nPrice )
+    void addLine( int nQuantity, String sItem, long nPrice )
     {
-        ((DataModel) tblPaper.getModel()).addLine( nQuantity, sItem, nPrice );
+        addLine( new BillLine( nQuantity, sItem, nPrice ) );
+    }
 
-        tblPaper.getSelectionModel().setSelectionInterval( tblPaper.getRowCount() - 1, tblPaper.getRowCount() - 1 );
+    void addLine( BillLine line )
+    {
+        ((DataModel) tblPaper.getModel()).addLine( line );
 
-        // Hace la fila seleccionada visible
-        Rectangle rect = tblPaper.getCellRect( tblPaper.getRowCount() - 1, 0, true );
-        getViewport().scrollRectToVisible( rect );
+        selectRow( tblPaper.getRowCount() - 1 );
 
         // Alínea horizontalmente a la derecha (no puede hacerse hasta que haya datos)
         if( ((DataModel) tblPaper.getModel()).getRowCount() == 1 )
@@ -92,6 +125,7 @@ final class ItemsPanel extends JScrollPane
 
         if( nRow > -1 )
         {
+            ((DataModel) tblPaper.getModel()).checkpoint();
             ((DataModel) tblPaper.getModel()).deleteSelectedLine();
 
             if( tblPaper.getRowCount() > 0 )
@@ -106,6 +140,10 @@ final class ItemsPanel extends JScrollPane
     {
         nRowEditing = tblPaper.getSelectedRow();
 
+        // Se guarda pero no se apila aún: sólo habrá algo que deshacer si al
+        // terminar el precio es otro (y una sola vez, no cada pulsación del teclado)
+        stateBeforeEditing = ((DataModel) tblPaper.getModel()).getState();
+
         TableColumn column = tblPaper.getColumnModel().getColumn( nCOL_PRICE );
                     column.setCellRenderer( new CellRendererToEditPrice() );
 
@@ -134,8 +172,7 @@ final class ItemsPanel extends JScrollPane
 
         try
         {
-            BigDecimal bd = new BigDecimal( sNewPrice );
-            ((DataModel) tblPaper.getModel()).setPriceInRow( bd, nRowEditing );
+            ((DataModel) tblPaper.getModel()).setPriceInRow( Money.parse( sNewPrice ), nRowEditing );
         }
         catch( NumberFormatException nfe )
         {
@@ -145,36 +182,76 @@ final class ItemsPanel extends JScrollPane
 
     void stopEditingPrice()
     {
+        DataModel model = (DataModel) tblPaper.getModel();
+
+        if( stateBeforeEditing != null && nRowEditing > -1 &&
+            stateBeforeEditing.vLines.get( nRowEditing ).getPrice() != model.vLines.get( nRowEditing ).getPrice() )
+        {
+            model.checkpoint( stateBeforeEditing );
+        }
+
+        stateBeforeEditing = null;
         nRowEditing = -1;      // No es necesario pero es elgante
         setDefaultRenderers();
     }
 
     void incrementQuantity()
     {
-        ((DataModel) tblPaper.getModel()).changeQuantityInSelectedLine( 1 );
+        if( tblPaper.getSelectedRow() > -1 )
+        {
+            ((DataModel) tblPaper.getModel()).checkpoint();
+            ((DataModel) tblPaper.getModel()).changeQuantityInSelectedLine( 1 );
+        }
     }
 
     void decrementQuantity()
     {
-        ((DataModel) tblPaper.getModel()).changeQuantityInSelectedLine( -1 );
+        DataModel model = (DataModel) tblPaper.getModel();
+        int       nRow  = tblPaper.getSelectedRow();
+
+        if( nRow > -1 && model.vLines.get( nRow ).getQuantity() > 1 )    // Si no, no cambia nada que deshacer
+        {
+            model.checkpoint();
+            model.changeQuantityInRow( nRow, -1 );
+        }
     }
 
-    List<BillLine> getBillLines()
+    /**
+     * Deshace el último cambio hecho en las líneas (añadir, borrar, cambiar la
+     * cantidad o el precio).
+     */
+    void undo()
     {
-        return ((DataModel) tblPaper.getModel()).vLines;
+        restore( ((DataModel) tblPaper.getModel()).undo() );
     }
 
-    BigDecimal getTotal()
+    /**
+     * Rehace el último cambio deshecho.
+     */
+    void redo()
     {
-        BigDecimal nTotal = new BigDecimal( 0 );
+        restore( ((DataModel) tblPaper.getModel()).redo() );
+    }
 
-        for( BillLine line : getBillLines() )
-        {
-            BigDecimal nQuantity = new BigDecimal( line.getQuantity() );
-            nTotal = nTotal.add( line.getPrice().multiply( nQuantity ) );
-        }
+    boolean canUndo()
+    {
+        return ! ((DataModel) tblPaper.getModel()).dqUndo.isEmpty();
+    }
 
-        return nTotal;
+    boolean canRedo()
+    {
+        return ! ((DataModel) tblPaper.getModel()).dqRedo.isEmpty();
+    }
+
+    List<BillLine> getBillLines()
+    {
+        return ((DataModel) tblPaper.getModel()).vLines.toList();
+    }
+
+    // En unidades mínimas de la moneda (ver Money): no recorre las líneas
+    long getTotal()
+    {
+        return ((DataModel) tblPaper.getModel()).nTotal;
     }
 
     boolean isRowSelected()
@@ -184,6 +261,29 @@ final class ItemsPanel extends JScrollPane
 
     //------------------------------------------------------------------------//
 
+    // Selecciona la fila que ha cambiado (o la última si el cambio fue borrarla)
+    private void restore( int nRow )
+    {
+        int nRows = tblPaper.getRowCount();
+
+        if( nRows > 0 )
+        {
+            if( nRow < 0 || nRow >= nRows )
+                nRow = nRows - 1;
+
+            selectRow( nRow );
+        }
+    }
+
+    private void selectRow( int nRow )
+    {
+        tblPaper.getSelectionModel().setSelectionInterval( nRow, nRow );
+
+        // Hace la fila seleccionada visible
+        Rectangle rect = tblPaper.getCellRect( nRow, 0, true );
+        getViewport().scrollRectToVisible( rect );
+    }
+
     private void setDefaultRenderers()
     {
         DefaultTableCellRenderer cr = new DefaultTableCellRenderer();
@@ -254,7 +354,25 @@ final class ItemsPanel extends JScrollPane
     //------------------------------------------------------------------------//
     private final class DataModel extends AbstractTableModel
     {
-        private List<BillLine> vLines = new ArrayList<BillLine>();
+        // Las líneas no se modifican nunca: cada cambio crea una línea y un vector
+        // nuevos, así las versiones anteriores siguen intactas para deshacer
+        private PersistentVector<BillLine> vLines = PersistentVector.empty();
+        private long                       nTotal = Money.ZERO;    // Se actualiza con cada cambio en las líneas
+        private int                        nRowChanged = -1;       // Última fila cambiada (para seleccionarla al deshacer)
+
+        // Versiones anteriores (y deshechas) de las líneas: comparten casi todo con
+        // la actual, cada una cuesta O(log n) nodos
+        private Deque<State> dqUndo = new ArrayDeque<State>();
+        private Deque<State> dqRedo = new ArrayDeque<State>();
+
+        // Precio e importe ya formateados de cada línea (se pintan muchas más veces de
+        // las que cambian): se quitan cuando cambia el precio o la cantidad
+        private Map<BillLine,String[]> mapFormatted = new IdentityHashMap<BillLine,String[]>();
+
+        // Para cada producto y precio (ver bCOALESCE): la fila de una de sus líneas y
+        // cuántas líneas tiene; así encontrarla no depende del nº de líneas de la
+        // cuenta. Es null hasta que hace falta.
+        private Map<String,IndexEntry> mapIndex = null;
 
         @Override
         public int getColumnCount()
@@ -277,10 +395,8 @@ final class ItemsPanel extends JScrollPane
             {
                 case nCOL_QUANTITY: ret = vLines.get( nRow ).getQuantity();                           break;
                 case nCOL_ITEM    : ret = vLines.get( nRow ).getItem();                               break;
-                case nCOL_PRICE   : ret = Utils.formatLikeCurrency( vLines.get( nRow ).getPrice() );  break;
-                case nCOL_AMOUNT  : BillLine line = vLines.get( nRow );
-                                    BigDecimal nAmount = line.getPrice().multiply( new BigDecimal( line.getQuantity() ) );
-                                    ret = Utils.formatLikeCurrency( nAmount );                        break;
+                case nCOL_PRICE   : ret = getFormatted( vLines.get( nRow ) )[0];                      break;
+                case nCOL_AMOUNT  : ret = getFormatted( vLines.get( nRow ) )[1];                      break;
             }
 
             return ret;
@@ -292,9 +408,66 @@ final class ItemsPanel extends JScrollPane
             return false;
         }
 
-        private void addLine( int nQuantity, String sItem, BigDecimal nPrice )
+        // Guarda la versión actual para poder volver a ella: se llama antes de cada cambio
+        private void checkpoint()
         {
-            vLines.add( new BillLine( nQuantity, sItem, nPrice ) );
+            checkpoint( getState() );
+        }
+
+        // Ídem pero con una versión guardada antes (ver startEditingPrice())
+        private void checkpoint( State state )
+        {
+            dqUndo.push( state );
+
+            if( dqUndo.size() > nUNDO_LEVELS )
+                dqUndo.removeLast();
+
+            dqRedo.clear();
+        }
+
+        private State getState()
+        {
+            return new State( vLines, nTotal, nRowChanged );
+        }
+
+        // Ambos retornan la fila del cambio deshecho o rehecho (para seleccionarla)
+        private int undo()
+        {
+            int nRow = nRowChanged;
+
+            return (swap( dqUndo, dqRedo ) ? nRow : -1);
+        }
+
+        private int redo()
+        {
+            return (swap( dqRedo, dqUndo ) ? nRowChanged : -1);
+        }
+
+        private boolean swap( Deque<State> dqFrom, Deque<State> dqTo )
+        {
+            if( dqFrom.isEmpty() )
+                return false;
+
+            State state = dqFrom.pop();
+
+            dqTo.push( getState() );
+
+            vLines      = state.vLines;
+            nTotal      = state.nTotal;
+            nRowChanged = state.nRowChanged;
+            mapIndex    = null;
+            mapFormatted.clear();
+            fireTableDataChanged();
+
+            return true;
+        }
+
+        private void addLine( BillLine line )
+        {
+            vLines = vLines.add( line );
+            nTotal += line.getAmount();
+            nRowChanged = vLines.size() - 1;
+            index( line, nRowChanged );
             fireTableRowsInserted( vLines.size() - 1, vLines.size() - 1 );
         }
 
@@ -304,7 +477,14 @@ final class ItemsPanel extends JScrollPane
 
             if( nRow > -1 )
             {
-                vLines.remove( nRow );
+                BillLine line = vLines.get( nRow );
+
+                vLines = vLines.remove( nRow );
+                nTotal -= line.getAmount();
+                nRowChanged = nRow;
+                mapFormatted.remove( line );
+                unindex( line, nRow );
+                shiftIndex( nRow );
                 fireTableRowsDeleted( nRow, nRow );
             }
         }
@@ -315,21 +495,183 @@ final class ItemsPanel extends JScrollPane
 
             if( nRow > -1 )
             {
-                BillLine line = vLines.get( nRow );
+                changeQuantityInRow( nRow, nQuantity );
+            }
+        }
 
-                if( nQuantity > 0 || line.getQuantity() > 1 )
-                {
-                    line.setQuantity( line.getQuantity() + nQuantity );
-                    fireTableRowsUpdated( nRow, nRow );
-                }
+        private void changeQuantityInRow( int nRow, int nQuantity )
+        {
+            BillLine line = vLines.get( nRow );
+
+            if( nQuantity > 0 || line.getQuantity() > 1 )
+            {
+                replace( nRow, line, line.withQuantity( line.getQuantity() + nQuantity ) );
+                nTotal += Money.multiply( line.getPrice(), nQuantity );
+                fireTableRowsUpdated( nRow, nRow );
             }
         }
 
-        private void setPriceInRow( BigDecimal nPrice, int nRow )
+        private void setPriceInRow( long nPrice, int nRow )
         {
             BillLine line = vLines.get( nRow );
-                     line.setPrice( nPrice );
+
+            nTotal += Money.multiply( nPrice - line.getPrice(), line.getQuantity() );
+            replace( nRow, line, line.withPrice( nPrice ) );
+
             fireTableRowsUpdated( nRow, nRow );
         }
+
+        private void replace( int nRow, BillLine oldLine, BillLine newLine )
+        {
+            vLines = vLines.set( nRow, newLine );
+            nRowChanged = nRow;
+            unindex( oldLine, nRow );
+            index( newLine, nRow );
+            mapFormatted.remove( oldLine );
+        }
+
+        // Retorna la fila de una línea de ese producto y precio o -1 si no hay ninguna
+        private int findLine( String sItem, long nPrice )
+        {
+            IndexEntry entry = getIndex().get( getKey( sItem, nPrice ) );
+
+            if( entry == null )
+                return -1;
+
+            if( entry.nRow < 0 )    // Se quitó la línea indexada pero quedan otras: se busca una
+            {
+                int nRow = 0;
+
+                for( BillLine line : vLines.toList() )
+                {
+                    if( line.getPrice() == nPrice && line.getItem().equals( sItem ) )
+                    {
+                        entry.nRow = nRow;
+                        break;
+                    }
+
+                    nRow++;
+                }
+            }
+
+            return entry.nRow;
+        }
+
+        private Map<String,IndexEntry> getIndex()
+        {
+            if( mapIndex == null )
+            {
+                mapIndex = new HashMap<String,IndexEntry>();
+
+                int nRow = 0;
+
+                for( BillLine line : vLines.toList() )
+                {
+                    index( line, nRow++ );
+                }
+            }
+
+            return mapIndex;
+        }
+
+        private void index( BillLine line, int nRow )
+        {
+            if( mapIndex == null )    // Se construirá cuando haga falta
+                return;
+
+            String     sKey  = getKey( line.getItem(), line.getPrice() );
+            IndexEntry entry = mapIndex.get( sKey );
+
+            if( entry == null )
+            {
+                mapIndex.put( sKey, new IndexEntry( nRow ) );
+            }
+            else    // Ya había otras (p.ej. de antes de activar bCOALESCE)
+            {
+                entry.nLines++;
+
+                if( entry.nRow < 0 )
+                    entry.nRow = nRow;
+            }
+        }
+
+        private void unindex( BillLine line, int nRow )
+        {
+            if( mapIndex == null )
+                return;
+
+            String     sKey  = getKey( line.getItem(), line.getPrice() );
+            IndexEntry entry = mapIndex.get( sKey );
+
+            if( entry == null )
+                return;
+
+            if( --entry.nLines == 0 )
+                mapIndex.remove( sKey );
+            else if( entry.nRow == nRow )
+                entry.nRow = -1;    // Quedan otras: findLine() buscará una cuando haga falta
+        }
+
+        // Al borrar una fila, las de debajo suben una: recorre los productos distintos, no las líneas
+        private void shiftIndex( int nDeletedRow )
+        {
+            if( mapIndex == null )
+                return;
+
+            for( IndexEntry entry : mapIndex.values() )
+            {
+                if( entry.nRow > nDeletedRow )
+                    entry.nRow--;
+            }
+        }
+
+        private String getKey( String sItem, long nPrice )
+        {
+            return sItem +'\u0000'+ nPrice;
+        }
+
+        private String[] getFormatted( BillLine line )
+        {
+            String[] as = mapFormatted.get( line );
+
+            if( as == null )
+            {
+                as = new String[] { Utils.formatLikeCurrency( line.getPrice() ), Utils.formatLikeCurrency( line.getAmount() ) };
+                mapFormatted.put( line, as );
+            }
+
+            return as;
+        }
+    }
+
+    //------------------------------------------------------------------------//
+    // Inner Class: Lo que guarda el índice de DataModel para cada producto y precio.
+    //------------------------------------------------------------------------//
+    private final static class IndexEntry
+    {
+        private int nRow;          // Fila de una de las líneas (-1 si hay que buscarla)
+        private int nLines = 1;    // Nº de líneas con ese producto y precio
+
+        IndexEntry( int nRow )
+        {
+            this.nRow = nRow;
+        }
+    }
+
+    //------------------------------------------------------------------------//
+    // Inner Class: Una versión de las líneas del ticket (inmutable).
+    //------------------------------------------------------------------------//
+    private final static class State
+    {
+        private final PersistentVector<BillLine> vLines;
+        private final long                       nTotal;
+        private final int                        nRowChanged;
+
+        State( PersistentVector<BillLine> vLines, long nTotal, int nRowChanged )
+        {
+            this.vLines      = vLines;
+            this.nTotal      = nTotal;
+            this.nRowChanged = nRowChanged;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.account.bill;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lista inmutable indexada por posición: cada modificación retorna una lista
+ * nueva que comparte con la anterior todo salvo el camino hasta el elemento
+ * cambiado.
+ * <p>
+ * Internamente es un árbol AVL ordenado por posición (cada nodo sabe cuántos
+ * elementos cuelgan de él), por lo que get, set, add y remove son O(log n) y
+ * cada versión sólo cuesta O(log n) nodos nuevos: guardar las versiones
+ * anteriores de una cuenta (para deshacer) no copia nunca la cuenta entera.
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class PersistentVector<E>
+{
+    private final static PersistentVector<?> EMPTY = new PersistentVector<Object>( null );
+
+    private final Node<E> root;
+
+    //------------------------------------------------------------------------//
+
+    @SuppressWarnings( "unchecked" )
+    static <E> PersistentVector<E> empty()
+    {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    private PersistentVector( Node<E> root )
+    {
+        this.root = root;
+    }
+
+    int size()
+    {
+        return size( root );
+    }
+
+    boolean isEmpty()
+    {
+        return root == null;
+    }
+
+    E get( int nIndex )
+    {
+        checkIndex( nIndex, size() );
+
+        Node<E> node = root;
+
+        while( true )
+        {
+            int nLeft = size( node.left );
+
+                 if( nIndex < nLeft  )  node = node.left;
+            else if( nIndex == nLeft )  return node.value;
+            else                      { nIndex -= nLeft + 1;  node = node.right; }
+        }
+    }
+
+    PersistentVector<E> set( int nIndex, E value )
+    {
+        checkIndex( nIndex, size() );
+
+        return new PersistentVector<E>( set( root, nIndex, value ) );
+    }
+
+    PersistentVector<E> add( E value )
+    {
+        return add( size(), value );
+    }
+
+    PersistentVector<E> add( int nIndex, E value )
+    {
+        checkIndex( nIndex, size() + 1 );
+
+        return new PersistentVector<E>( insert( root, nIndex, value ) );
+    }
+
+    PersistentVector<E> remove( int nIndex )
+    {
+        checkIndex( nIndex, size() );
+
+        return new PersistentVector<E>( remove( root, nIndex ) );
+    }
+
+    /**
+     * @return Una copia (modificable) de los elementos en su orden.
+     */
+    List<E> toList()
+    {
+        List<E> list = new ArrayList<E>( size() );
+
+        addTo( root, list );
+
+        return list;
+    }
+
+    //------------------------------------------------------------------------//
+    // Todas retornan nodos nuevos: los que se reciben no se modifican nunca
+
+    private static <E> Node<E> set( Node<E> node, int nIndex, E value )
+    {
+        int nLeft = size( node.left );
+
+        if( nIndex < nLeft  )  return new Node<E>( node.value, set( node.left, nIndex, value ), node.right );
+        if( nIndex == nLeft )  return new Node<E>( value, node.left, node.right );
+
+        return new Node<E>( node.value, node.left, set( node.right, nIndex - nLeft - 1, value ) );
+    }
+
+    private static <E> Node<E> insert( Node<E> node, int nIndex, E value )
+    {
+        if( node == null )
+        {
+            return new Node<E>( value, null, null );
+        }
+
+        int nLeft = size( node.left );
+
+        if( nIndex <= nLeft )  return balance( node.value, insert( node.left, nIndex, value ), node.right );
+
+        return balance( node.value, node.left, insert( node.right, nIndex - nLeft - 1, value ) );
+    }
+
+    private static <E> Node<E> remove( Node<E> node, int nIndex )
+    {
+        int nLeft = size( node.left );
+
+        if( nIndex < nLeft )  return balance( node.value, remove( node.left, nIndex ), node.right );
+        if( nIndex > nLeft )  return balance( node.value, node.left, remove( node.right, nIndex - nLeft - 1 ) );
+
+        // Es este nodo: se sustituye por el primero de su rama derecha
+        if( node.left  == null )  return node.right;
+        if( node.right == null )  return node.left;
+
+        return balance( first( node.right ), node.left, remove( node.right, 0 ) );
+    }
+
+    private static <E> E first( Node<E> node )
+    {
+        while( node.left != null )
+        {
+            node = node.left;
+        }
+
+        return node.value;
+    }
+
+    private static <E> Node<E> balance( E value, Node<E> left, Node<E> right )
+    {
+        int nDiff = height( left ) - height( right );
+
+        if( nDiff > 1 )
+        {
+            if( height( left.left ) < height( left.right ) )        // Rotación doble
+            {
+                Node<E> lr = left.right;
+
+                return new Node<E>( lr.value, new Node<E>( left.value, left.left, lr.left ),
+                                              new Node<E>( value, lr.right, right ) );
+            }
+
+            return new Node<E>( left.value, left.left, new Node<E>( value, left.right, right ) );
+        }
+
+        if( nDiff < -1 )
+        {
+            if( height( right.right ) < height( right.left ) )      // Rotación doble
+            {
+                Node<E> rl = right.left;
+
+                return new Node<E>( rl.value, new Node<E>( value, left, rl.left ),
+                                              new Node<E>( right.value, rl.right, right.right ) );
+            }
+
+            return new Node<E>( right.value, new Node<E>( value, left, right.left ), right.right );
+        }
+
+        return new Node<E>( value, left, right );
+    }
+
+    private static <E> void addTo( Node<E> node, List<E> list )
+    {
+        while( node != null )
+        {
+            addTo( node.left, list );
+            list.add( node.value );
+            node = node.right;
+        }
+    }
+
+    private static int size( Node<?> node )
+    {
+        return (node == null ? 0 : node.nSize);
+    }
+
+    private static int height( Node<?> node )
+    {
+        return (node == null ? 0 : node.nHeight);
+    }
+
+    private static void checkIndex( int nIndex, int nLimit )
+    {
+        if( nIndex < 0 || nIndex >= nLimit )
+        {
+            throw new IndexOutOfBoundsException( "Index: "+ nIndex );
+        }
+    }
+
+    //------------------------------------------------------------------------//
+    // Inner Class
+    //------------------------------------------------------------------------//
+    private final static class Node<E>
+    {
+        private final E       value;
+        private final Node<E> left;
+        private final Node<E> right;
+        private final int     nSize;
+        private final int     nHeight;
+
+        Node( E value, Node<E> left, Node<E> right )
+        {
+            this.value   = value;
+            this.left    = left;
+            this.right   = right;
+            this.nSize   = size( left ) + size( right ) + 1;
+            this.nHeight = Math.max( height( left ), height( right ) ) + 1;
+        }
+    }
+}
\ No newline at end of file
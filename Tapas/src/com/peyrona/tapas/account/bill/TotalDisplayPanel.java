@@ -21,12 +21,12 @@
 
 package com.peyrona.tapas.account.bill;
 
+import com.peyrona.tapas.Money;
 import com.peyrona.tapas.Utils;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Insets;
-import java.math.BigDecimal;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
@@ -53,9 +53,9 @@ final class TotalDisplayPanel extends JPanel
 	/**
 	 * Clears display and set a new amount using passed parameter.
 	 *
-	 * @param nAmount New amount to be displayed.
+	 * @param nAmount New amount to be displayed (en unidades mínimas de la moneda).
 	 */
-	void setAmount( BigDecimal nAmount )
+	void setAmount( long nAmount )
 	{
 		txt.setText( Utils.formatAsCurrency( nAmount ) );
 	}
@@ -87,6 +87,6 @@ final class TotalDisplayPanel extends JPanel
         add( lblTotal, BorderLayout.WEST   );
         add( txt     , BorderLayout.CENTER );
 
-        setAmount( new BigDecimal( 0 ) );
+        setAmount( Money.ZERO );
 	}
 }
\ No newline at end of file
@@ -0,0 +1,479 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.account.menu;
+
+import com.peyrona.tapas.persistence.Product;
+import com.peyrona.tapas.persistence.SharedIcon;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.swing.JComponent;
+import javax.swing.UIManager;
+
+/**
+ * Rejilla de "botones" de la Carta (categorías o productos) pintada por un
+ * único componente.
+ * <p>
+ * En lugar de tres componentes Swing por producto (panel, botón y etiqueta),
+ * este componente pinta él mismo todas las celdas (icono, texto y los estados
+ * pulsado y seleccionado) y averigua sobre qué celda se ha pulsado. Al pintar
+ * sólo se recorren las celdas que intersectan con el área a repintar, y al
+ * pulsar o cuando llega un icono sólo se repinta esa celda.
+ * <p>
+ * Cuando se pulsa una celda se envía un ActionEvent cuyo source es el Product
+ * de la celda (igual que hacían los antiguos botones).
+ *
+ * @author Francisco Morero Peyrona
+ */
+class MenuGrid extends JComponent
+{
+    // Si se cambia, hay que cambiar también Product.Thumbnail.Button
+    static final Dimension CELL_SIZE = new Dimension( 110, 120 );
+
+    private static final int nCAPTION_HEIGHT = 14;    // Alto de la zona del texto (bajo el botón)
+    private static final int nARC            =  8;    // Redondeo de las esquinas de los botones
+
+    // Los iconos convertidos al formato de la pantalla (se pintan mucho más rápido).
+    // La clave es la imagen de la miniatura: cuando ésta sale de la caché de
+    // IconLoader y nadie la usa, desaparece también de aquí.
+    private static final Map<Image,Image> mapSprites = new WeakHashMap<Image,Image>();
+
+    private final boolean bToggle;     // Las celdas quedan seleccionadas al pulsarlas (categorías)
+    private final int     nColumns;    // 0 == una sola fila
+
+    private List<Product>        lstProducts  = new ArrayList<Product>();
+    private List<ActionListener> lstListeners = new ArrayList<ActionListener>();
+    private int                  nRows        = 1;
+    private int                  nCols        = 0;
+    private int                  nPressed     = -1;       // Celda pulsada (aún no se ha soltado)
+    private boolean              bArmed       = false;    // El ratón sigue sobre la celda pulsada
+    private int                  nSelected    = -1;       // Sólo si bToggle
+
+    // Geometría de las celdas (ver updateGeometry())
+    private int nCellW;
+    private int nCellH;
+    private int nLeft;
+
+    // Cuando llega un icono que aún no estaba cargado se repinta todo: los repaint()
+    // se agrupan y, como el resto de iconos ya están en la caché, es muy rápido.
+    private final Runnable onIconLoaded = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            repaint();
+        }
+    };
+
+    //----------------------------------------------------------------------------//
+
+    /**
+     * @param bToggle Si las celdas quedan seleccionadas al pulsarlas.
+     * @param nColumns Nº de columnas o 0 para mostrar todas las celdas en una
+     *                 sola fila.
+     */
+    MenuGrid( boolean bToggle, int nColumns )
+    {
+        this.bToggle  = bToggle;
+        this.nColumns = nColumns;
+
+        Font font = UIManager.getFont( "Label.font" );
+
+        if( font != null )
+        {
+            setFont( font.deriveFont( Font.PLAIN, 9f ) );
+        }
+
+        setOpaque( false );
+        setForeground( UIManager.getColor( "Label.foreground" ) );
+
+        MouseAdapter ma = new MouseAdapter()
+        {
+            @Override
+            public void mousePressed( MouseEvent me )
+            {
+                nPressed = getCellAt( me.getX(), me.getY() );
+                bArmed   = (nPressed > -1);
+                repaintCell( nPressed );
+            }
+
+            @Override
+            public void mouseDragged( MouseEvent me )
+            {
+                boolean bOver = (nPressed > -1 && getCellAt( me.getX(), me.getY() ) == nPressed);
+
+                if( bOver != bArmed )
+                {
+                    bArmed = bOver;
+                    repaintCell( nPressed );
+                }
+            }
+
+            @Override
+            public void mouseReleased( MouseEvent me )
+            {
+                int nCell = nPressed;
+
+                nPressed = -1;
+                repaintCell( nCell );
+
+                if( nCell > -1 && getCellAt( me.getX(), me.getY() ) == nCell )
+                {
+                    select( nCell, me.getModifiersEx() );
+                }
+            }
+        };
+
+        addMouseListener( ma );
+        addMouseMotionListener( ma );
+    }
+
+    //----------------------------------------------------------------------------//
+
+    /**
+     * Muestra los productos pasados. No se crea ningún componente: sólo se
+     * recalcula el layout si cambia el nº de filas o columnas.
+     *
+     * @param lstProducts Los productos (o categorías) a mostrar.
+     */
+    void setProducts( List<Product> lstProducts )
+    {
+        this.lstProducts = lstProducts;
+        this.nPressed    = -1;
+        this.nSelected   = -1;
+
+        int nOldRows = nRows;
+        int nOldCols = nCols;
+
+        if( nColumns == 0 )
+        {
+            nRows = 1;
+            nCols = lstProducts.size();
+        }
+        else
+        {   // Igual que el GridLayout que había antes: al menos 4 filas y si no caben
+            // todos los productos, se añaden columnas
+            nRows = Math.max( 4, lstProducts.size() / nColumns );
+            nCols = Math.max( nColumns, (lstProducts.size() + nRows - 1) / nRows );
+        }
+
+        if( nRows != nOldRows || nCols != nOldCols )
+        {
+            revalidate();
+        }
+
+        repaint();
+    }
+
+    /**
+     * Selecciona la celda y envía el evento, como si se hubiese pulsado.
+     *
+     * @param nIndex Índice de la celda.
+     */
+    void doClick( int nIndex )
+    {
+        if( nIndex > -1 && nIndex < lstProducts.size() )
+        {
+            select( nIndex, 0 );
+        }
+    }
+
+    void addActionListener( ActionListener al )
+    {
+        if( al != null )
+        {
+            lstListeners.add( al );
+        }
+    }
+
+    void removeActionListener( ActionListener al )
+    {
+        if( al != null && lstListeners.contains( al ) )
+        {
+            lstListeners.remove( al );
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        if( isPreferredSizeSet() )
+        {
+            return super.getPreferredSize();
+        }
+
+        return new Dimension( (nCols * CELL_SIZE.width ) + (Math.max( 0, nCols - 1 ) * getGap()),
+                              (nRows * CELL_SIZE.height) + (Math.max( 0, nRows - 1 ) * getGap()) );
+    }
+
+    @Override
+    public Dimension getMinimumSize()
+    {
+        return getPreferredSize();
+    }
+
+    //----------------------------------------------------------------------------//
+
+    @Override
+    protected void paintComponent( Graphics g )
+    {
+        Graphics2D g2d  = (Graphics2D) g;
+        Rectangle  clip = g.getClipBounds();
+
+        if( clip == null )
+        {
+            clip = new Rectangle( 0, 0, getWidth(), getHeight() );
+        }
+
+        g2d.setRenderingHint( RenderingHints.KEY_ANTIALIASING     , RenderingHints.VALUE_ANTIALIAS_ON      );
+        g2d.setRenderingHint( RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON );
+        g2d.setFont( getFont() );
+
+        updateGeometry();
+
+        // Sólo se pintan las celdas que hay que repintar
+        Rectangle rect = new Rectangle();
+
+        for( int nCell = 0; nCell < nRows * nCols; nCell++ )
+        {
+            getCellBounds( nCell, rect );
+
+            if( rect.intersects( clip ) )
+            {
+                paintCell( g2d, nCell, rect );
+            }
+        }
+    }
+
+    //----------------------------------------------------------------------------//
+
+    private void paintCell( Graphics2D g2d, int nCell, Rectangle rect )
+    {
+        Product product  = ((nCell < lstProducts.size()) ? lstProducts.get( nCell ) : null);
+        int     nBtnH    = rect.height - nCAPTION_HEIGHT;
+        boolean bPressed = (nCell == nPressed && bArmed) || (nCell == nSelected);
+
+        // El botón
+        Color background = UIManager.getColor( bPressed ? "Button.select" : "Button.background" );
+
+        g2d.setColor( (background != null) ? background : (bPressed ? Color.lightGray : getBackground()) );
+        g2d.fillRoundRect( rect.x, rect.y, rect.width - 1, nBtnH - 1, nARC, nARC );
+        g2d.setColor( bPressed ? Color.darkGray : Color.gray );
+        g2d.drawRoundRect( rect.x, rect.y, rect.width - 1, nBtnH - 1, nARC, nARC );
+
+        if( product == null )    // Celda de relleno
+        {
+            return;
+        }
+
+        // El icono (ya reducido: ver Product.Thumbnail)
+        SharedIcon icon = product.getThumbnail( Product.Thumbnail.Button, onIconLoaded );
+
+        if( icon != null )
+        {
+            Image sprite = getSprite( icon.getImage() );
+            int   nW     = sprite.getWidth( null );
+            int   nH     = sprite.getHeight( null );
+
+            g2d.drawImage( sprite, rect.x + (rect.width - nW) / 2, rect.y + (nBtnH - nH) / 2, null );
+        }
+
+        // El texto, cortado si no cabe
+        FontMetrics fm       = g2d.getFontMetrics();
+        String      sCaption = clip( product.getCaption(), fm, rect.width );
+
+        g2d.setColor( getForeground() );
+        g2d.drawString( sCaption,
+                        rect.x + (rect.width - fm.stringWidth( sCaption )) / 2,
+                        rect.y + nBtnH + ((nCAPTION_HEIGHT - fm.getHeight()) / 2) + fm.getAscent() );
+    }
+
+    private void select( int nCell, int nModifiers )
+    {
+        Product product = ((nCell < lstProducts.size()) ? lstProducts.get( nCell ) : null);
+
+        if( product == null )    // Celda de relleno
+        {
+            return;
+        }
+
+        if( bToggle && nSelected != nCell )
+        {
+            int nOld = nSelected;
+
+            nSelected = nCell;
+            repaintCell( nOld );
+            repaintCell( nCell );
+        }
+
+        // Como hacían los botones, el source es el Producto (no el componente)
+        ActionEvent ae = new ActionEvent( product, ActionEvent.ACTION_PERFORMED, product.getCaption(),
+                                          System.currentTimeMillis(), nModifiers );
+
+        for( ActionListener al : new ArrayList<ActionListener>( lstListeners ) )
+        {
+            al.actionPerformed( ae );
+        }
+    }
+
+    private int getGap()
+    {
+        return MenuPanel.nGAP;
+    }
+
+    /**
+     * Las celdas tienen el tamaño de CELL_SIZE salvo que haya más sitio: en ese
+     * caso se reparte (como hacía el GridLayout) si hay varias filas, o se
+     * centran (como hacía el FlowLayout) si es una sola fila.
+     */
+    private void updateGeometry()
+    {
+        int nGap = getGap();
+
+        nCellW = CELL_SIZE.width;
+        nCellH = CELL_SIZE.height;
+        nLeft  = 0;
+
+        if( nColumns == 0 )
+        {
+            nLeft = Math.max( 0, (getWidth() - (nCols * (nCellW + nGap) - nGap)) / 2 );
+        }
+        else
+        {
+            nCellW = Math.max( nCellW, (getWidth()  - (nCols - 1) * nGap) / Math.max( 1, nCols ) );
+            nCellH = Math.max( nCellH, (getHeight() - (nRows - 1) * nGap) / Math.max( 1, nRows ) );
+        }
+    }
+
+    /**
+     * Antes hay que invocar a updateGeometry().
+     */
+    private void getCellBounds( int nCell, Rectangle rect )
+    {
+        int nGap = getGap();
+        int nRow = nCell / nCols;
+        int nCol = nCell % nCols;
+
+        rect.setBounds( nLeft + nCol * (nCellW + nGap), nRow * (nCellH + nGap), nCellW, nCellH );
+    }
+
+    private int getCellAt( int x, int y )
+    {
+        Rectangle rect = new Rectangle();
+
+        updateGeometry();
+
+        for( int nCell = 0; nCell < nRows * nCols; nCell++ )
+        {
+            getCellBounds( nCell, rect );
+
+            if( rect.contains( x, y ) )
+            {
+                return nCell;
+            }
+        }
+
+        return -1;
+    }
+
+    private void repaintCell( int nCell )
+    {
+        if( nCell > -1 )
+        {
+            Rectangle rect = new Rectangle();
+
+            updateGeometry();
+            getCellBounds( nCell, rect );
+            repaint( rect );
+        }
+    }
+
+    private Image getSprite( Image image )
+    {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+
+        if( gc == null )
+        {
+            return image;
+        }
+
+        Image sprite = mapSprites.get( image );    // Sólo se accede desde el EDT
+
+        if( sprite == null )
+        {
+            int nW = image.getWidth( null );
+            int nH = image.getHeight( null );
+
+            if( nW < 1 || nH < 1 )
+            {
+                return image;
+            }
+
+            BufferedImage bimage = gc.createCompatibleImage( nW, nH, Transparency.TRANSLUCENT );
+            Graphics      g      = bimage.createGraphics();
+                          g.drawImage( image, 0, 0, null );
+                          g.dispose();
+
+            sprite = bimage;
+            mapSprites.put( image, sprite );
+        }
+
+        return sprite;
+    }
+
+    private static String clip( String sText, FontMetrics fm, int nWidth )
+    {
+        if( sText == null )
+        {
+            return "";
+        }
+
+        if( fm.stringWidth( sText ) <= nWidth )
+        {
+            return sText;
+        }
+
+        String sEllipsis = "...";
+        int    nLen      = sText.length();
+
+        while( nLen > 0 && fm.stringWidth( sText.substring( 0, nLen ) + sEllipsis ) > nWidth )
+        {
+            nLen--;
+        }
+
+        return sText.substring( 0, nLen ) + sEllipsis;
+    }
+}
\ No newline at end of file
@@ -49,8 +49,8 @@ public final class MenuPanel extends JPanel
         JScrollBar scrollBar;
         Dimension  sbSize;
 
-        // Panel de Categorias
-        pnlCategories.setCategories( DataProvider.getInstance().getCategoriesAndProducts() );
+        // Panel de Categorias (la Carta está en caché: no se lee de la DB cada vez)
+        pnlCategories.setCategories( DataProvider.getInstance().getMenu() );
 
         JScrollPane spCategories = new JScrollPane( pnlCategories );
                     spCategories.setBorder( null );
@@ -21,7 +21,8 @@ package com.peyrona.tapas.mainFrame;
 import com.peyrona.tapas.Utils;
 import com.peyrona.tapas.account.BillAndMenuPanel;
 import com.peyrona.tapas.persistence.Bill;
-import com.peyrona.tapas.persistence.DataProvider;
+import com.peyrona.tapas.persistence.OpenBillsSnapshot;
+import com.peyrona.tapas.persistence.AsyncDataProvider;
 import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.Font;
@@ -29,7 +30,6 @@ import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.beans.PropertyVetoException;
-import java.math.BigDecimal;
 import javax.swing.JButton;
 import javax.swing.JInternalFrame;
 import javax.swing.JLabel;
@@ -80,6 +80,8 @@ final class BillInternalFrame extends JInternalFrame
 
         getContentPane().add( panel );
         pack();
+
+        OpenBillsSnapshot.getInstance().put( this.bill );    // Para no perderla si la aplicación muere
     }
 
     //----------------------------------------------------------------------------//
@@ -124,10 +126,29 @@ final class BillInternalFrame extends JInternalFrame
 
     private void onCloseBill()
     {
-        if( bill.getLines().size() > 0 )
+        if( bill.getLines().isEmpty() )
+        {
+            OpenBillsSnapshot.getInstance().remove( bill );
+        }
+        else
         {
-            DataProvider.getInstance().insertBill( bill );
-            printTicket( bill );
+            // Se guarda en background: el camarero no tiene que esperar al disco
+            AsyncDataProvider.getInstance().insertBill( bill, new AsyncDataProvider.Callback<Bill>()
+            {
+                @Override
+                public void onSuccess( Bill saved )
+                {
+                    // Ya está a salvo en disco: deja de ser una cuenta abierta
+                    OpenBillsSnapshot.getInstance().remove( saved );
+                    printTicket( saved );
+                }
+
+                @Override
+                public void onError( Throwable th )
+                {
+                    Utils.printError( th );
+                }
+            } );
         }
 
         dispose();
@@ -168,12 +189,16 @@ final class BillInternalFrame extends JInternalFrame
 
             bill = panel.getBill();
             setCustomer( bill.getCustomer() ); // Por si ha cambiado (es más simple que comprobar si ha cambiado)
-            lblAmount.setAmount( bill.getTotal() );
+            lblAmount.setAmount( panel.getTotal() );
 
             if( bill.isClosed() )
             {
                 onCloseBill();
             }
+            else
+            {
+                OpenBillsSnapshot.getInstance().put( bill );
+            }
         }
     }
 
@@ -188,7 +213,7 @@ final class BillInternalFrame extends JInternalFrame
             setHorizontalAlignment( JLabel.CENTER );
         }
 
-        void setAmount( BigDecimal nAmount )
+        void setAmount( long nAmount )
         {
             setText( Utils.formatAsCurrency( nAmount ) );
         }
@@ -29,6 +29,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.List;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 
@@ -59,6 +60,20 @@ public final class MainFrame extends JFrame implements ActionListener
 
     //------------------------------------------------------------------------//
 
+    /**
+     * Vuelve a abrir las cuentas que estaban abiertas cuando se cerró la
+     * aplicación (o cuando murió).
+     *
+     * @param bills Cuentas a abrir.
+     */
+    public void openAccounts( List<Bill> bills )
+    {
+        for( Bill bill : bills )
+        {
+            desktop.openAccount( bill );
+        }
+    }
+
     @Override
     public void actionPerformed( ActionEvent ae )
     {
@@ -29,7 +29,9 @@ import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import javax.swing.*;
 import javax.swing.border.Border;
 import javax.swing.border.EmptyBorder;
@@ -204,6 +206,9 @@ final class JTables4Menu
         private List<Product> vLines       = new ArrayList<Product>();
         private String[]      asColNames   = null;
 
+        // Precio ya formateado de cada producto: se quita cuando cambia
+        private Map<Product,String> mapPrices = new IdentityHashMap<Product,String>();
+
         private DataModel( String[] asColNames )
         {
             this.asColNames = asColNames;
@@ -238,17 +243,17 @@ final class JTables4Menu
                 switch( nCol )
                 {
                     case TableCategories.nCOL_CAPTION: ret = product.getCaption(); break;
-                    case TableCategories.nCOL_ICON   : ret = product.getIcon();    break;
+                    case TableCategories.nCOL_ICON   : ret = product;              break;    // Ver CellRenderer4Icon
                 }
             }
             else                         // Products
             {
                 switch( nCol )
                 {
-                    case TableProducts.nCOL_CAPTION    : ret = product.getCaption();                           break;
-                    case TableProducts.nCOL_DESCRIPTION: ret = product.getDescription();                       break;
-                    case TableProducts.nCOL_PRICE      : ret = Utils.formatLikeCurrency( product.getPrice() ); break;
-                    case TableProducts.nCOL_ICON       : ret = product.getIcon();                              break;
+                    case TableProducts.nCOL_CAPTION    : ret = product.getCaption();         break;
+                    case TableProducts.nCOL_DESCRIPTION: ret = product.getDescription();     break;
+                    case TableProducts.nCOL_PRICE      : ret = getFormattedPrice( product ); break;
+                    case TableProducts.nCOL_ICON       : ret = product;                      break;
                 }
             }
 
@@ -265,7 +270,7 @@ final class JTables4Menu
                 switch( nCol )
                 {
                     case TableCategories.nCOL_CAPTION: product.setCaption( (String)    value); break;
-                    case TableCategories.nCOL_ICON   : product.setIcon(    (ImageIcon) value); break;
+                    case TableCategories.nCOL_ICON   : setIcon( product, (ImageIcon) value ); break;
                 }
             }
             else                         // Products
@@ -274,8 +279,9 @@ final class JTables4Menu
                 {
                     case TableProducts.nCOL_CAPTION    : product.setCaption(     (String)    value); break;
                     case TableProducts.nCOL_DESCRIPTION: product.setDescription( (String)    value); break;
-                    case TableProducts.nCOL_PRICE      : product.setPrice(       Str2Price(value) ); break;
-                    case TableProducts.nCOL_ICON       : product.setIcon(        (ImageIcon) value); break;
+                    case TableProducts.nCOL_PRICE      : product.setPrice(       Str2Price(value) );
+                                                         mapPrices.remove( product );                break;
+                    case TableProducts.nCOL_ICON       : setIcon( product, (ImageIcon) value );      break;
                 }
             }
 
@@ -288,6 +294,14 @@ final class JTables4Menu
             return true;
         }
 
+        // Si no se eligió una imagen nueva, el editor retorna null: en ese caso
+        // el producto conserva el icono que tenía.
+        private void setIcon( Product product, ImageIcon icon )
+        {
+            if( icon != null )
+                product.setIcon( icon );
+        }
+
         private List<Product> getData()
         {
             return vLines;
@@ -296,6 +310,7 @@ final class JTables4Menu
         private void setData( List<Product> data )
         {
             vLines = data;
+            mapPrices.clear();
             fireTableDataChanged();
         }
 
@@ -310,7 +325,7 @@ final class JTables4Menu
         {
             if( nRow > -1 )
             {
-                vLines.remove( nRow );
+                mapPrices.remove( vLines.remove( nRow ) );
                 fireTableRowsDeleted( nRow, nRow );
                 bDataChanged = true;
             }
@@ -340,6 +355,19 @@ final class JTables4Menu
             return nNewRow;
         }
 
+        private String getFormattedPrice( Product product )
+        {
+            String sPrice = mapPrices.get( product );
+
+            if( sPrice == null )
+            {
+                sPrice = Utils.formatLikeCurrency( product.getPrice() );
+                mapPrices.put( product, sPrice );
+            }
+
+            return sPrice;
+        }
+
         // Esto no es alta tecnología, pero si el usuario es sensato funciona
         private BigDecimal Str2Price( Object value )
         {
@@ -353,10 +381,25 @@ final class JTables4Menu
     //------------------------------------------------------------------------//
     // Inner Class
     //------------------------------------------------------------------------//
+    /**
+     * El valor de la celda es el Product: se muestra su miniatura (ver
+     * Product.Thumbnail), que ya está reducida al tamaño de la fila.
+     */
     private static final class CellRenderer4Icon extends JLabel implements TableCellRenderer
     {
         private Border selected;
         private Border unselected;
+        private JTable table;
+
+        // Las miniaturas se cargan en background: cuando llega una, se repinta la tabla
+        private final Runnable onIconLoaded = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                table.repaint();
+            }
+        };
 
         private CellRenderer4Icon()
         {
@@ -367,8 +410,10 @@ final class JTables4Menu
         @Override
         public Component getTableCellRendererComponent( JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column )
         {
+            this.table = table;
+
             setBorder( (isSelected ? selected : unselected) );
-            setIcon( (ImageIcon) value );
+            setIcon( ((Product) value).getThumbnail( Product.Thumbnail.Table, onIconLoaded ) );
             return this;
         }
     }
@@ -396,8 +441,8 @@ final class JTables4Menu
         @Override
         public Component getTableCellEditorComponent( JTable table, Object value, boolean isSelected, int row, int column )
         {
-            icon = (ImageIcon) value;
-            label.setIcon( icon );
+            icon = null;    // Mientras no se elija una imagen nueva
+            label.setIcon( ((Product) value).getThumbnail( Product.Thumbnail.Table, null ) );
 
             return label;
         }
@@ -408,9 +453,12 @@ final class JTables4Menu
             BufferedImage bimage = SwingUtils.ImageChooser();
 
             if( bimage != null )
+            {
                 icon = new ImageIcon( bimage );
+                label.setIcon( new ImageIcon( Utils.getThumbnail( bimage, Product.Thumbnail.Table.getWidth(),
+                                                                          Product.Thumbnail.Table.getHeight() ) ) );
+            }
 
-            label.setIcon( icon );
             fireEditingStopped();            // Para que el renderer haga su trabajo
         }
 
@@ -71,6 +71,8 @@ final class Menu extends JPanel implements ActionListener
     {
         if( tblCategories.isDataChanged() || tblProducts.isDataChanged() )
         {
+            // Síncrono: la Carta tiene que estar grabada antes de que se pueda volver a abrir
+            // (MenuWriter borra de la DB lo que no viene en la lista)
             DataProvider.getInstance().setCategoriesAndProducts( tblCategories.getData() );
         }
     }
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import com.peyrona.tapas.Utils;
+import java.awt.EventQueue;
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Versión asíncrona de DataProvider: cada operación se ejecuta en un thread
+ * distinto del Event Dispatch Thread (EDT), por lo que la pantalla táctil no se
+ * queda "congelada" mientras se accede al disco.
+ * <p>
+ * Cada método retorna inmediatamente un Future y, cuando la operación termina,
+ * invoca al Callback (si no es null) <b>dentro del EDT</b>, por lo que desde el
+ * Callback se puede actualizar el GUI directamente.
+ * <p>
+ * Si la JVM los soporta (Java 21 o superior) se utilizan "virtual threads"; si
+ * no, un pool de threads normales. Se hace por reflexión para que la aplicación
+ * siga funcionando en JVMs antiguas.
+ * <p>
+ * Las operaciones que modifican la DB se ejecutan todas en un mismo thread, en
+ * el orden en que se pidieron: dos grabaciones seguidas nunca se adelantan la
+ * una a la otra. Las lecturas no esperan a las grabaciones pendientes, por lo
+ * que lo que haya que leer justo después de grabarlo debe grabarse con
+ * DataProvider (síncrono).
+ * <p>
+ * Nota: los errores de acceso a la DB ya los trata DataProvider (avisa y aborta
+ * la aplicación), por lo que Callback.onError() sólo recibirá errores inesperados.
+ *
+ * @author Francisco Morero Peyrona
+ */
+public final class AsyncDataProvider
+{
+    /**
+     * Recibe, dentro del EDT, el resultado de una operación asíncrona.
+     *
+     * @param <T> Tipo del resultado
+     */
+    public interface Callback<T>
+    {
+        void onSuccess( T result );
+
+        void onError( Throwable th );
+    }
+
+    //------------------------------------------------------------------------//
+
+    private static volatile AsyncDataProvider instance = null;    // Para el Singleton
+
+    private final ExecutorService executor;    // Lecturas
+    private final ExecutorService writer;      // Modificaciones (un solo thread: en orden)
+
+    //------------------------------------------------------------------------//
+
+    public static AsyncDataProvider getInstance()
+    {
+        if( instance == null )
+        {
+            synchronized( AsyncDataProvider.class )
+            {
+                if( instance == null )
+                    instance = new AsyncDataProvider();
+            }
+        }
+
+        return instance;
+    }
+
+    //------------------------------------------------------------------------//
+
+    public Future<Configuration> getConfiguration( Callback<Configuration> callback )
+    {
+        return submit( new Callable<Configuration>()
+        {
+            @Override
+            public Configuration call()
+            {
+                return DataProvider.getInstance().getConfiguration();
+            }
+        }, callback );
+    }
+
+    public Future<Void> setConfiguration( final Configuration config, Callback<Void> callback )
+    {
+        return write( new Callable<Void>()
+        {
+            @Override
+            public Void call()
+            {
+                DataProvider.getInstance().setConfiguration( config );
+                return null;
+            }
+        }, callback );
+    }
+
+    public Future<List<Product>> getCategoriesAndProducts( Callback<List<Product>> callback )
+    {
+        return submit( new Callable<List<Product>>()
+        {
+            @Override
+            public List<Product> call()
+            {
+                return DataProvider.getInstance().getCategoriesAndProducts();
+            }
+        }, callback );
+    }
+
+    public Future<Void> setCategoriesAndProducts( final List<Product> products, Callback<Void> callback )
+    {
+        return write( new Callable<Void>()
+        {
+            @Override
+            public Void call()
+            {
+                DataProvider.getInstance().setCategoriesAndProducts( products );
+                return null;
+            }
+        }, callback );
+    }
+
+    public Future<Bill> insertBill( final Bill bill, Callback<Bill> callback )
+    {
+        return write( new Callable<Bill>()
+        {
+            @Override
+            public Bill call()
+            {
+                return DataProvider.getInstance().insertBill( bill );
+            }
+        }, callback );
+    }
+
+    public Future<Bill> updateBill( final Bill bill, Callback<Bill> callback )
+    {
+        return write( new Callable<Bill>()
+        {
+            @Override
+            public Bill call()
+            {
+                return DataProvider.getInstance().updateBill( bill );
+            }
+        }, callback );
+    }
+
+    public Future<Void> deleteBill( final Bill bill, Callback<Void> callback )
+    {
+        return write( new Callable<Void>()
+        {
+            @Override
+            public Void call()
+            {
+                DataProvider.getInstance().deleteBill( bill );
+                return null;
+            }
+        }, callback );
+    }
+
+    public Future<List<Bill>> findBills( final Date dFrom, final Date dTo, final Bill.Payment[] payments,
+                                         final boolean bDelete, Callback<List<Bill>> callback )
+    {
+        Callable<List<Bill>> task = new Callable<List<Bill>>()
+        {
+            @Override
+            public List<Bill> call() throws Exception
+            {
+                return DataProvider.getInstance().findBills( dFrom, dTo, payments, bDelete );
+            }
+        };
+
+        return (bDelete ? write( task, callback ) : submit( task, callback ));    // Si borra, es una modificación
+    }
+
+    /**
+     * Ojo: el processor se invoca desde el thread de trabajo, no desde el EDT
+     * (no tendría sentido pasar cada ticket al EDT). Sólo el callback final se
+     * invoca en el EDT.
+     */
+    public Future<Void> findBills( final Date dFrom, final Date dTo, final Bill.Payment[] payments,
+                                   final BillProcessor processor, Callback<Void> callback )
+    {
+        return submit( new Callable<Void>()
+        {
+            @Override
+            public Void call()
+            {
+                DataProvider.getInstance().findBills( dFrom, dTo, payments, processor );
+                return null;
+            }
+        }, callback );
+    }
+
+    public Future<List<Bill>> findBillsByCustomer( final String sCustomerPattern, Callback<List<Bill>> callback )
+    {
+        return submit( new Callable<List<Bill>>()
+        {
+            @Override
+            public List<Bill> call()
+            {
+                return DataProvider.getInstance().findBillsByCustomer( sCustomerPattern );
+            }
+        }, callback );
+    }
+
+    public Future<List<SalesSummary>> findSalesSummary( final Date dFrom, final Date dTo, Callback<List<SalesSummary>> callback )
+    {
+        return submit( new Callable<List<SalesSummary>>()
+        {
+            @Override
+            public List<SalesSummary> call()
+            {
+                return DataProvider.getInstance().findSalesSummary( dFrom, dTo );
+            }
+        }, callback );
+    }
+
+    public Future<Map<String,Integer>> findProductUnits( final Date dFrom, final Date dTo, Callback<Map<String,Integer>> callback )
+    {
+        return submit( new Callable<Map<String,Integer>>()
+        {
+            @Override
+            public Map<String,Integer> call()
+            {
+                return DataProvider.getInstance().findProductUnits( dFrom, dTo );
+            }
+        }, callback );
+    }
+
+    /**
+     * Espera (un tiempo razonable) a que terminen las operaciones pendientes:
+     * hay que invocarlo antes de desconectar de la DB para no perder nada.
+     */
+    public void shutdown()
+    {
+        writer.shutdown();
+        executor.shutdown();
+
+        try
+        {
+            if( ! writer.awaitTermination( 15, TimeUnit.SECONDS ) ||
+                ! executor.awaitTermination( 1, TimeUnit.SECONDS ) )
+                Utils.printError( null, java.util.logging.Level.WARNING,
+                                  "Quedan operaciones pendientes con la base de datos", Utils.nEXIT_NO_EXIT );
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //------------------------------------------------------------------------//
+
+    private AsyncDataProvider()
+    {
+        executor = createExecutor();
+        writer   = Executors.newSingleThreadExecutor( new ThreadFactory()
+                   {
+                       @Override
+                       public Thread newThread( Runnable r )
+                       {
+                           Thread thread = new Thread( r, "Tapas-DB-Writer" );
+                                  thread.setDaemon( true );
+
+                           return thread;
+                       }
+                   } );
+    }
+
+    private <T> Future<T> submit( Callable<T> task, Callback<T> callback )
+    {
+        return submit( executor, task, callback );
+    }
+
+    private <T> Future<T> write( Callable<T> task, Callback<T> callback )
+    {
+        return submit( writer, task, callback );
+    }
+
+    private <T> Future<T> submit( ExecutorService service, final Callable<T> task, final Callback<T> callback )
+    {
+        return service.submit( new Callable<T>()
+        {
+            @Override
+            public T call() throws Exception
+            {
+                T result;
+
+                try
+                {
+                    result = task.call();
+                }
+                catch( final Exception exc )
+                {
+                    onEDT( callback, null, exc );
+                    throw exc;
+                }
+
+                onEDT( callback, result, null );
+
+                return result;
+            }
+        } );
+    }
+
+    private <T> void onEDT( final Callback<T> callback, final T result, final Throwable th )
+    {
+        if( callback == null )
+        {
+            if( th != null )
+                Utils.printError( th );
+
+            return;
+        }
+
+        EventQueue.invokeLater( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if( th == null ) callback.onSuccess( result );
+                else             callback.onError( th );
+            }
+        } );
+    }
+
+    private static ExecutorService createExecutor()
+    {
+        try
+        {   // Executors.newVirtualThreadPerTaskExecutor() sólo existe a partir de Java 21
+            Method method = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+
+            return (ExecutorService) method.invoke( null );
+        }
+        catch( Exception exc )
+        {
+            return Executors.newCachedThreadPool( new ThreadFactory()
+            {
+                private final AtomicInteger nCount = new AtomicInteger( 0 );
+
+                @Override
+                public Thread newThread( Runnable r )
+                {
+                    Thread thread = new Thread( r, "Tapas-DB-"+ nCount.incrementAndGet() );
+                           thread.setDaemon( true );    // No debe impedir que la JVM termine
+
+                    return thread;
+                }
+            } );
+        }
+    }
+}
\ No newline at end of file
@@ -18,8 +18,11 @@
 
 package com.peyrona.tapas.persistence;
 
+import com.peyrona.tapas.Money;
 import com.peyrona.tapas.Utils;
-import java.math.BigDecimal;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -130,14 +133,16 @@ public final class Bill
         this.lstLines.add( line );
     }
 
-    public BigDecimal getTotal()
+    /**
+     * @return El total en unidades mínimas de la moneda (ver Money).
+     */
+    public long getTotal()
     {
-        BigDecimal nTotal = new BigDecimal( 0 );
+        long nTotal = Money.ZERO;
 
-        for( BillLine line : lstLines )
+        for( int n = 0; n < lstLines.size(); n++ )    // Sin Iterator: no se crea ningún objeto
         {
-            BigDecimal nQuantity = new BigDecimal( line.getQuantity() );
-            nTotal = nTotal.add( line.getPrice().multiply( nQuantity ) );
+            nTotal += lstLines.get( n ).getAmount();
         }
 
         return nTotal;
@@ -196,30 +201,95 @@ public final class Bill
     }
 
     int getPayModeAsInt()
+    {
+        return toPayModeAsInt( getPayment() );
+    }
+
+    // Una cuenta abierta a la que aún no se le ha elegido forma de pago no
+    // tiene Payment (es null): su código es -1
+    static int toPayModeAsInt( Payment payment )
     {
         int n = -1;
 
-        switch( getPayment() )
+        if( payment != null )
         {
-            case Undefined : n = 1; break;
-            case Deferred  : n = 2; break;
-            case Invitation: n = 3; break;
-            case NotPaid   : n = 4; break;
-            case Paid      : n = 5; break;
+            switch( payment )
+            {
+                case Undefined : n = 1; break;
+                case Deferred  : n = 2; break;
+                case Invitation: n = 3; break;
+                case NotPaid   : n = 4; break;
+                case Paid      : n = 5; break;
+            }
         }
 
         return n;
     }
 
+    /**
+     * Escribe el ticket en formato binario compacto (lo utilizan el diario de
+     * tickets y la instantánea de las cuentas abiertas).
+     */
+    void write( DataOutput out ) throws IOException
+    {
+        out.writeInt( getId() );
+        out.writeUTF( getCustomer() );
+        out.writeLong( getWhenWasOpen() );
+        out.writeInt( getPayModeAsInt() );
+        out.writeInt( getLines().size() );
+
+        for( BillLine line : getLines() )
+        {
+            out.writeInt( line.getQuantity() );
+            out.writeUTF( line.getItem() );
+            out.writeUTF( Money.toBigDecimal( line.getPrice() ).toPlainString() );    // Como texto: no depende de los decimales de la moneda
+        }
+    }
+
+    /**
+     * Lee un ticket escrito con write(...).
+     */
+    static Bill read( DataInput in ) throws IOException
+    {
+        Bill bill = new Bill();
+             bill.setId( in.readInt() );
+             bill.setCustomer( in.readUTF() );
+             bill.setWhenWasOpen( in.readLong() );
+             bill.setPayment( toPayment( in.readInt() ) );    // -1 (sin forma de pago) es null
+
+        for( int n = in.readInt(); n > 0; n-- )
+        {
+            bill.addLine( new BillLine( in.readInt(), in.readUTF(), Money.parse( in.readUTF() ) ) );
+        }
+
+        // Para que las cuentas nuevas no repitan el nombre automático de una ya existente
+        if( bill.getCustomer().matches( "\\d{1,9}" ) )
+            nCount = Math.max( nCount, Integer.parseInt( bill.getCustomer() ) + 1 );
+
+        return bill;
+    }
+
     void setPayModeAsInt( int nPayMode )
     {
+        Payment pay = toPayment( nPayMode );
+
+        if( pay != null )
+            setPayment( pay );
+    }
+
+    static Payment toPayment( int nPayMode )
+    {
+        Payment pay = null;
+
         switch( nPayMode )
         {
-            case 1: setPayment( Payment.Undefined  ); break;
-            case 2: setPayment( Payment.Deferred   ); break;
-            case 3: setPayment( Payment.Invitation ); break;
-            case 4: setPayment( Payment.NotPaid    ); break;
-            case 5: setPayment( Payment.Paid       ); break;
+            case 1: pay = Payment.Undefined;  break;
+            case 2: pay = Payment.Deferred;   break;
+            case 3: pay = Payment.Invitation; break;
+            case 4: pay = Payment.NotPaid;    break;
+            case 5: pay = Payment.Paid;       break;
         }
+
+        return pay;
     }
 }
\ No newline at end of file
@@ -18,7 +18,7 @@
 
 package com.peyrona.tapas.persistence;
 
-import java.math.BigDecimal;
+import com.peyrona.tapas.Money;
 
 /**
  * Clase Entidad (Entity Class) que representa elementos "BillLines" de la
@@ -27,17 +27,19 @@ import java.math.BigDecimal;
  * En la implementación por defecto del repositorio de datos se utiliza una
  * base de datos Derby y en este caso, esta entidad se corresponde con la tabla
  * "Ventas_detalle".
+ * <p>
+ * El precio está en unidades mínimas de la moneda (ver Money).
 
  * @author Francisco Morero Peyrona
  */
 public final class BillLine
 {
-    private int        nId;
-    private int        nQuantity;
-    private String     sItem;
-    private BigDecimal nPrice;
+    private int    nId;
+    private int    nQuantity;
+    private String sItem;
+    private long   nPrice;
 
-    public BillLine( int nQuantity, String sItem, BigDecimal nPrice )
+    public BillLine( int nQuantity, String sItem, long nPrice )
     {
         this.nId       = -1;
         this.nQuantity = nQuantity;
@@ -81,21 +83,54 @@ public final class BillLine
     }
 
     /**
-     * @return the nPrice
+     * @return the nPrice (en unidades mínimas de la moneda)
      */
-    public BigDecimal getPrice()
+    public long getPrice()
     {
         return nPrice;
     }
 
     /**
-     * @param nPrice the nPrice to set
+     * @param nPrice the nPrice to set (en unidades mínimas de la moneda)
      */
-    public void setPrice( BigDecimal nPrice )
+    public void setPrice( long nPrice )
     {
         this.nPrice = nPrice;
     }
 
+    /**
+     * @return Precio por cantidad (en unidades mínimas de la moneda)
+     */
+    public long getAmount()
+    {
+        return Money.multiply( nPrice, nQuantity );
+    }
+
+    /**
+     * @return Una línea nueva igual a esta (con el mismo id) pero con otra
+     *         cantidad: así esta no cambia y puede seguir en el histórico
+     *         para deshacer.
+     */
+    public BillLine withQuantity( int nQuantity )
+    {
+        BillLine line = new BillLine( nQuantity, sItem, nPrice );
+                 line.nId = nId;
+
+        return line;
+    }
+
+    /**
+     * @return Una línea nueva igual a esta (con el mismo id) pero con otro
+     *         precio (en unidades mínimas de la moneda).
+     */
+    public BillLine withPrice( long nPrice )
+    {
+        BillLine line = new BillLine( nQuantity, sItem, nPrice );
+                 line.nId = nId;
+
+        return line;
+    }
+
     @Override
     public boolean equals( Object obj )
     {
@@ -120,7 +155,7 @@ public final class BillLine
         {
             return false;
         }
-        if( this.nPrice.compareTo( other.nPrice ) != 0 )
+        if( this.nPrice != other.nPrice )
         {
             return false;
         }
@@ -134,7 +169,7 @@ public final class BillLine
         hash = 97 * hash + this.nId;
         hash = 97 * hash + this.nQuantity;
         hash = 97 * hash + (this.sItem != null ? this.sItem.hashCode() : 0);
-        hash = 97 * hash + (this.nPrice != null ? this.nPrice.hashCode() : 0);
+        hash = 97 * hash + (int) (this.nPrice ^ (this.nPrice >>> 32));
         return hash;
     }
 
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+/**
+ * Recibe, uno a uno, los tickets que se van leyendo de la fuente de datos.
+ * <p>
+ * Se utiliza para recorrer rangos grandes de tickets (listados, exportaciones)
+ * sin tener que tenerlos todos a la vez en memoria: cada ticket se entrega en
+ * cuanto está completo y después puede ser descartado.
+ *
+ * @author Francisco Morero Peyrona
+ */
+public interface BillProcessor
+{
+    /**
+     * Invocado por cada ticket leído.
+     *
+     * @param bill El ticket con todas sus líneas.
+     * @return true para seguir recibiendo tickets, false para terminar.
+     */
+    boolean process( Bill bill );
+}
\ No newline at end of file
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+
+/**
+ * Criterios de búsqueda de tickets.
+ * <p>
+ * Genera la condición (el WHERE) con parámetros ('?') en lugar de concatenar
+ * los valores en el texto SQL: así la sentencia sólo depende de qué criterios
+ * se utilizan (la "forma" del filtro) y no de sus valores, por lo que puede
+ * prepararse una vez y reutilizarse (ver StatementCache) y además no hay que
+ * preocuparse de comillas, formatos de fecha, etc.
+ * <p>
+ * Todas las columnas que se utilizan son de la tabla APP.ventas.
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class BillsFilter
+{
+    private static final char cESCAPE = '\\';
+
+    private final Timestamp tsFrom;
+    private final Timestamp tsTo;
+    private final int[]     anPayModes;
+    private final String    sCustomerPattern;
+    private final String    sCondition;
+
+    //------------------------------------------------------------------------//
+
+    BillsFilter( Date dFrom, Date dTo, Bill.Payment[] payments )
+    {
+        this( dFrom, dTo, payments, null );
+    }
+
+    BillsFilter( String sCustomer )
+    {
+        this( null, null, null, sCustomer );
+    }
+
+    BillsFilter( Date dFrom, Date dTo, Bill.Payment[] payments, String sCustomer )
+    {
+        tsFrom           = (dFrom == null ? null : new Timestamp( dFrom.getTime() ));
+        tsTo             = (dTo   == null ? null : new Timestamp( dTo.getTime() ));
+        anPayModes       = toPayModes( payments );
+        sCustomerPattern = (sCustomer == null ? null : '%'+ escapeLike( sCustomer ) +'%');
+        sCondition       = buildCondition();
+    }
+
+    /**
+     * La condición con los parámetros como '?' o una cadena vacía si no hay
+     * ningún criterio.
+     */
+    String getCondition()
+    {
+        return sCondition;
+    }
+
+    /**
+     * Asigna al PreparedStatement los valores de los parámetros de la condición.
+     *
+     * @param ps     Donde asignar los valores
+     * @param nIndex Índice del primer parámetro de la condición dentro de la sentencia
+     * @return El índice del siguiente parámetro tras los de la condición.
+     * @throws SQLException
+     */
+    int setParameters( PreparedStatement ps, int nIndex ) throws SQLException
+    {
+        if( tsFrom != null )
+            ps.setTimestamp( nIndex++, tsFrom );
+
+        if( tsTo != null )
+            ps.setTimestamp( nIndex++, tsTo );
+
+        for( int nPayMode : anPayModes )
+            ps.setInt( nIndex++, nPayMode );
+
+        if( sCustomerPattern != null )
+            ps.setString( nIndex++, sCustomerPattern );
+
+        return nIndex;
+    }
+
+    //------------------------------------------------------------------------//
+
+    private String buildCondition()
+    {
+        StringBuilder sb = new StringBuilder( 128 );
+
+        if( tsFrom != null )
+            and( sb ).append( "APP.ventas.cuando >= ?" );
+
+        if( tsTo != null )
+            and( sb ).append( "APP.ventas.cuando <= ?" );
+
+        if( anPayModes.length > 0 )
+        {
+            and( sb ).append( "APP.ventas.modo_pago IN (?" );
+
+            for( int n = 1; n < anPayModes.length; n++ )
+                sb.append( ",?" );
+
+            sb.append( ')' );
+        }
+
+        if( sCustomerPattern != null )
+            and( sb ).append( "APP.ventas.cliente LIKE ? ESCAPE '" ).append( cESCAPE ).append( '\'' );
+
+        return sb.toString();
+    }
+
+    private StringBuilder and( StringBuilder sb )
+    {
+        if( sb.length() > 0 )
+            sb.append( " AND " );
+
+        return sb;
+    }
+
+    private int[] toPayModes( Bill.Payment[] payments )
+    {
+        if( payments == null )
+            return new int[0];
+
+        int[] an = new int[ payments.length ];
+
+        for( int n = 0; n < payments.length; n++ )
+            an[n] = Bill.toPayModeAsInt( payments[n] );
+
+        return an;
+    }
+
+    // Lo que escribe el usuario se busca literalmente: '%' y '_' no son comodines
+    private String escapeLike( String s )
+    {
+        StringBuilder sb = new StringBuilder( s.length() + 8 );
+
+        for( char c : s.toCharArray() )
+        {
+            if( c == '%' || c == '_' || c == cESCAPE )
+                sb.append( cESCAPE );
+
+            sb.append( c );
+        }
+
+        return sb.toString();
+    }
+}
\ No newline at end of file
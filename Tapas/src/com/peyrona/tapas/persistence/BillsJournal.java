@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import com.peyrona.tapas.Utils;
+import com.peyrona.tapas.swing.SwingUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Diario (journal) de tickets cerrados: "write-behind" para la DB.
+ * <p>
+ * Al cerrar un ticket, éste sólo se añade al final de un fichero (una única
+ * escritura secuencial) y se vuelca a disco; un thread en background se
+ * encarga después de grabar en Derby los tickets pendientes, varios en cada
+ * transacción. Así un checkpoint lento de Derby no hace esperar al camarero y,
+ * si la aplicación muere, no se pierde nada: al arrancar se aplican las
+ * entradas del diario que no llegaron a la DB.
+ * <p>
+ * Cada entrada del fichero es: longitud (int) + CRC32 (int) + datos, y los
+ * datos empiezan por un nº de secuencia. En la DB (tabla diario_ventas) se
+ * guarda el nº de secuencia de la última entrada aplicada, en la misma
+ * transacción que los tickets (ver BillsWriter), por lo que una entrada nunca
+ * se aplica dos veces.
+ * <p>
+ * El volcado a disco (fsync) se comparte: mientras un thread hace el fsync,
+ * los que llegan esperan y, cuando les toca, normalmente su entrada ya está en
+ * disco.
+ * <p>
+ * Si la DB rechaza una entrada (p.ej. un importe que no cabe en su columna),
+ * tras varios intentos se graban las entradas de una en una para dar con
+ * ella; la rechazada se guarda en el fichero de rechazados (mismo formato que
+ * el diario) y se da por aplicada, para que no bloquee a las que vienen detrás.
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class BillsJournal
+{
+    /**
+     * Una entrada del diario: el ticket y cuándo se cerró.
+     */
+    static final class Entry
+    {
+        final long nSeq;
+        final long nWhen;
+        final Bill bill;
+
+        Entry( long nSeq, long nWhen, Bill bill )
+        {
+            this.nSeq  = nSeq;
+            this.nWhen = nWhen;
+            this.bill  = bill;
+        }
+    }
+
+    //------------------------------------------------------------------------//
+
+    private static final int  nHEADER_SIZE  = 8;                  // longitud + CRC32
+    private static final int  nMAX_ENTRY    = 4 * 1024 * 1024;    // Más que esto sólo puede ser basura
+    private static final long nCOMPACT_SIZE = 1024 * 1024;        // Se vacía al superar este tamaño y estar todo aplicado
+    private static final long nMAX_WAIT    = 30 * 1000;          // ms que se espera a que se vacíe el diario
+    private static final int  nMAX_TRIES    = 3;                  // Intentos antes de buscar la entrada que la DB rechaza
+    private static final long nMAX_PAUSE    = 8 * 1000;           // ms máximos entre reintentos
+
+    private final FileChannel channel;
+    private final File        fRejected;   // Entradas que la DB no ha aceptado
+    private final BillsWriter writer;
+    private final int         nBatchSize;
+    private final Thread      drainer;
+
+    // Protegidos por el monitor de this
+    private final LinkedList<Entry> lstPending = new LinkedList<Entry>();
+    private long    nLastSeq;
+    private boolean bClosing = false;
+
+    // Protegido por syncLock (nunca se toma syncLock teniendo el monitor de this)
+    private final Object syncLock   = new Object();
+    private long         nSyncedSeq = 0;
+
+    //------------------------------------------------------------------------//
+
+    /**
+     * Abre (o crea) el diario, recupera las entradas que no se aplicaron y
+     * arranca el thread que las vuelca en la DB.
+     *
+     * @param file Fichero del diario.
+     * @param writer Donde se graban los tickets.
+     * @param nAppliedSeq Nº de secuencia de la última entrada aplicada en la DB.
+     * @param nBatchSize Nº máximo de tickets por transacción.
+     * @throws IOException
+     */
+    BillsJournal( File file, BillsWriter writer, long nAppliedSeq, int nBatchSize ) throws IOException
+    {
+        this.channel    = new RandomAccessFile( file, "rw" ).getChannel();
+        this.fRejected  = new File( file.getPath() +".rejected" );
+        this.writer     = writer;
+        this.nBatchSize = Math.max( 1, nBatchSize );
+        this.nLastSeq   = nAppliedSeq;
+
+        replay( nAppliedSeq );
+
+        drainer = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        }, "Tapas-Journal" );
+
+        drainer.setDaemon( true );
+        drainer.start();
+    }
+
+    /**
+     * Añade el ticket al diario y no retorna hasta que está en disco.
+     * <p>
+     * El ticket se grabará en la DB más tarde: hasta entonces su id es -1.
+     *
+     * @param bill Ticket cerrado.
+     * @return El mismo ticket.
+     * @throws IOException
+     */
+    Bill append( Bill bill ) throws IOException
+    {
+        long nWhen = System.currentTimeMillis();
+        long nSeq;
+
+        synchronized( this )
+        {
+            nSeq = nLastSeq + 1;
+
+            write( encode( nSeq, nWhen, bill ) );
+
+            nLastSeq = nSeq;
+            lstPending.add( new Entry( nSeq, nWhen, bill ) );
+            notifyAll();
+        }
+
+        sync( nSeq );
+
+        return bill;
+    }
+
+    /**
+     * Espera a que todas las entradas del diario estén grabadas en la DB: hay
+     * que invocarlo antes de leer, modificar o borrar tickets.
+     *
+     * @throws SQLException Si la DB no las acepta en un tiempo razonable.
+     */
+    synchronized void awaitDrained() throws SQLException
+    {
+        long nLimit = System.currentTimeMillis() + nMAX_WAIT;
+
+        while( ! lstPending.isEmpty() )
+        {
+            long nWait = nLimit - System.currentTimeMillis();
+
+            if( nWait <= 0 )
+                throw new SQLException( "No se han podido grabar en la DB los tickets del diario" );
+
+            try
+            {
+                wait( nWait );
+            }
+            catch( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                throw new SQLException( ie );
+            }
+        }
+    }
+
+    /**
+     * Graba en la DB lo que quede pendiente (si se puede) y cierra el fichero.
+     * Lo que no se haya podido grabar se aplicará la próxima vez que se arranque.
+     */
+    void close() throws IOException
+    {
+        synchronized( this )
+        {
+            bClosing = true;
+            notifyAll();
+        }
+
+        try
+        {
+            drainer.join( nMAX_WAIT );
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized( syncLock )
+        {
+            channel.close();
+        }
+    }
+
+    //------------------------------------------------------------------------//
+
+    // Lee el fichero completo: descarta la cola si está incompleta o corrupta
+    // (el proceso murió a mitad de una escritura) y recupera lo no aplicado.
+    private void replay( long nAppliedSeq ) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate( nHEADER_SIZE );
+        long       nPos   = 0;
+
+        channel.position( 0 );
+
+        while( true )
+        {
+            header.clear();
+
+            if( ! readFully( header ) )
+                break;
+
+            header.flip();
+
+            int nLength = header.getInt();
+            int nCRC    = header.getInt();
+
+            if( nLength <= 0 || nLength > nMAX_ENTRY )
+                break;
+
+            ByteBuffer data = ByteBuffer.allocate( nLength );
+
+            if( ! readFully( data ) || crc( data.array() ) != nCRC )
+                break;
+
+            Entry entry = decode( data.array() );
+
+            if( entry.nSeq > nAppliedSeq )
+                lstPending.add( entry );
+
+            nLastSeq = Math.max( nLastSeq, entry.nSeq );
+            nPos     = channel.position();
+        }
+
+        if( nPos < channel.size() )
+            channel.truncate( nPos );
+
+        channel.position( nPos );
+    }
+
+    private boolean readFully( ByteBuffer buffer ) throws IOException
+    {
+        while( buffer.hasRemaining() )
+        {
+            if( channel.read( buffer ) < 0 )
+                return false;
+        }
+
+        return true;
+    }
+
+    // Se invoca teniendo el monitor de this
+    private void write( byte[] data ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( nHEADER_SIZE + data.length );
+                   buffer.putInt( data.length );
+                   buffer.putInt( crc( data ) );
+                   buffer.put( data );
+                   buffer.flip();
+
+        while( buffer.hasRemaining() )
+            channel.write( buffer );
+    }
+
+    // Todas las entradas escritas hasta el momento del fsync quedan en disco
+    private void sync( long nSeq ) throws IOException
+    {
+        synchronized( syncLock )
+        {
+            if( nSyncedSeq >= nSeq )
+                return;    // Otro thread ya hizo el fsync que incluía esta entrada
+
+            long nUpTo;
+
+            synchronized( this )
+            {
+                nUpTo = nLastSeq;
+            }
+
+            channel.force( false );
+            nSyncedSeq = nUpTo;
+        }
+    }
+
+    private void drain()
+    {
+        int  nFailures = 0;     // Intentos fallidos seguidos
+        long nOneByOne = 0;     // Hasta esta entrada (incluida) se graban de una en una
+        long nRejected = 0;     // Última entrada guardada en el fichero de rechazados
+
+        while( true )
+        {
+            List<Entry> batch;
+
+            synchronized( this )
+            {
+                while( lstPending.isEmpty() && ! bClosing )
+                {
+                    try{ wait(); } catch( InterruptedException ie ) { return; }
+                }
+
+                if( lstPending.isEmpty() )
+                    return;
+
+                int nSize = (lstPending.getFirst().nSeq <= nOneByOne ? 1 : nBatchSize);
+
+                batch = new ArrayList<Entry>( lstPending.subList( 0, Math.min( nSize, lstPending.size() ) ) );
+            }
+
+            try
+            {
+                writer.insert( batch );
+            }
+            catch( Exception exc )    // SQLException o RuntimeException: nada debe matar este thread
+            {
+                Utils.printError( exc );
+                nFailures++;
+
+                if( nFailures >= nMAX_TRIES )
+                {
+                    if( batch.size() > 1 )    // Se buscará de una en una la entrada que falla
+                    {
+                        nOneByOne = batch.get( batch.size() - 1 ).nSeq;
+                        nFailures = 0;
+                        continue;
+                    }
+
+                    Entry entry = batch.get( 0 );
+
+                    if( entry.nSeq != nRejected && saveRejected( entry ) )
+                        nRejected = entry.nSeq;
+
+                    if( entry.nSeq == nRejected && skip( entry, exc ) )
+                    {
+                        nFailures = 0;
+                        continue;
+                    }
+                }
+
+                synchronized( this )
+                {
+                    if( bClosing )
+                        return;    // Se aplicarán la próxima vez que se arranque
+
+                    long nPause = Math.min( nMAX_PAUSE, 1000L << Math.min( nFailures - 1, 10 ) );
+
+                    try{ wait( nPause ); } catch( InterruptedException ie ) { return; }
+                }
+
+                continue;
+            }
+
+            nFailures = 0;
+
+            synchronized( this )
+            {
+                lstPending.subList( 0, batch.size() ).clear();
+
+                if( lstPending.isEmpty() )
+                    compact();
+
+                notifyAll();
+            }
+        }
+    }
+
+    // Añade la entrada al fichero de rechazados (con el formato del diario, para
+    // poder recuperarla a mano) y lo vuelca a disco antes de darla por aplicada.
+    private boolean saveRejected( Entry entry )
+    {
+        try
+        {
+            byte[]           data = encode( entry.nSeq, entry.nWhen, entry.bill );
+            RandomAccessFile raf  = new RandomAccessFile( fRejected, "rw" );
+
+            try
+            {
+                ByteBuffer buffer = ByteBuffer.allocate( nHEADER_SIZE + data.length );
+                           buffer.putInt( data.length );
+                           buffer.putInt( crc( data ) );
+                           buffer.put( data );
+                           buffer.flip();
+
+                FileChannel fc = raf.getChannel();
+                            fc.position( fc.size() );
+
+                while( buffer.hasRemaining() )
+                    fc.write( buffer );
+
+                fc.force( false );
+            }
+            finally
+            {
+                raf.close();
+            }
+
+            return true;
+        }
+        catch( Exception exc )    // Si no se puede guardar, no se da por aplicada: se sigue intentando
+        {
+            Utils.printError( exc );
+            return false;
+        }
+    }
+
+    // Da por aplicada la entrada (que ya está en el fichero de rechazados). Si ni
+    // siquiera esto se puede grabar, el problema es la DB y no la entrada: se
+    // seguirá intentando.
+    private boolean skip( Entry entry, Exception cause )
+    {
+        try
+        {
+            writer.skip( entry.nSeq );
+        }
+        catch( Exception exc )
+        {
+            Utils.printError( exc );
+            return false;
+        }
+
+        synchronized( this )
+        {
+            lstPending.removeFirst();
+
+            if( lstPending.isEmpty() )
+                compact();
+
+            notifyAll();
+        }
+
+        SwingUtils.showError( cause, Level.SEVERE,
+                              "No se ha podido grabar en la base de datos el ticket de \""+ entry.bill.getCustomer() +"\".\n"+
+                              "Se ha guardado en "+ fRejected.getAbsolutePath(),
+                              Utils.nEXIT_NO_EXIT );
+        return true;
+    }
+
+    // Todo está en la DB: si el fichero ha crecido mucho, se vacía.
+    // Se invoca teniendo el monitor de this (no puede haber escrituras a la vez).
+    private void compact()
+    {
+        try
+        {
+            if( channel.size() > nCOMPACT_SIZE )
+            {
+                channel.truncate( 0 );
+                channel.position( 0 );
+            }
+        }
+        catch( IOException ioe )
+        {
+            Utils.printError( ioe );
+        }
+    }
+
+    //------------------------------------------------------------------------//
+
+    private static int crc( byte[] data )
+    {
+        CRC32 crc = new CRC32();
+              crc.update( data );
+
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode( long nSeq, long nWhen, Bill bill ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( 256 );
+        DataOutputStream      dos  = new DataOutputStream( baos );
+
+        dos.writeLong( nSeq );
+        dos.writeLong( nWhen );
+        bill.write( dos );
+        dos.flush();
+
+        return baos.toByteArray();
+    }
+
+    private static Entry decode( byte[] data ) throws IOException
+    {
+        DataInputStream dis   = new DataInputStream( new ByteArrayInputStream( data ) );
+        long            nSeq  = dis.readLong();
+        long            nWhen = dis.readLong();
+
+        return new Entry( nSeq, nWhen, Bill.read( dis ) );
+    }
+}
\ No newline at end of file
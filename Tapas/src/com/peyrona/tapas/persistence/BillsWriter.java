@@ -0,0 +1,601 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import com.peyrona.tapas.Money;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Se encarga de grabar los tickets (cabecera y líneas) en la DB.
+ * <p>
+ * Cada ticket se graba en una única transacción: la cabecera con un INSERT y
+ * todas sus líneas en un único batch de JDBC. Además, si se indica una
+ * "ventana de commit" mayor que cero, los tickets que se cierran dentro de esa
+ * ventana (unos pocos milisegundos) comparten un mismo commit, es decir, un
+ * único volcado del log de Derby a disco (que es lo que de verdad cuesta).
+ * <p>
+ * Las modificaciones de un ticket ya grabado no lo borran y lo vuelven a
+ * grabar: se comparan las líneas grabadas con las que hay en memoria y sólo se
+ * graban las diferencias (líneas nuevas, modificadas y eliminadas), de modo
+ * que el ticket conserva su id.
+ * <p>
+ * En la misma transacción se actualiza el resumen de ventas (ver
+ * SalesSummaryWriter), por lo que éste siempre cuadra con los tickets.
+ * <p>
+ * Utiliza su propia Connection (con autocommit desactivado) para no interferir
+ * con el resto de operaciones, que siguen trabajando en modo autocommit.
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class BillsWriter
+{
+    private final Connection        dbConn;
+    private final int               nCommitWindow;     // En milisegundos (0 == commit inmediato)
+    private final PreparedStatement psInsertHead;
+    private final PreparedStatement psInsertLines;
+    private final PreparedStatement psUpdateHead;
+    private final PreparedStatement psSelectLines;
+    private final PreparedStatement psUpdateLine;
+    private final PreparedStatement psDeleteLine;
+    private final PreparedStatement psJournalSeq;
+    private final PreparedStatement psSelectHead;
+    private final PreparedStatement psDeleteHead;
+    private final SalesSummaryWriter summary;
+    private final ProductNames       names;
+
+    // Para el "group commit": todos estos campos se protegen con el monitor de this
+    private long    nGeneration    = 0;       // Nº de commits realizados hasta ahora
+    private long    nFailedGen     = -1;      // Última generación cuyo commit falló
+    private boolean bLeaderWaiting = false;   // Hay un thread esperando para hacer el commit
+
+    //------------------------------------------------------------------------//
+
+    BillsWriter( Connection conn, ProductNames names, int nCommitWindow ) throws SQLException
+    {
+        this.dbConn        = conn;
+        this.names         = names;
+        this.nCommitWindow = Math.max( 0, nCommitWindow );
+
+        dbConn.setAutoCommit( false );
+
+        psInsertHead  = dbConn.prepareStatement( "INSERT INTO APP.ventas "+
+                                                 " (cliente, modo_pago, cuando, total) VALUES(?,?,?,?)",
+                                                 Statement.RETURN_GENERATED_KEYS );
+
+        psInsertLines = dbConn.prepareStatement( "INSERT INTO APP.ventas_detalle "+
+                                                 " (id_venta, cantidad, id_nombre, precio) VALUES (?,?,?,?)" );
+
+        psUpdateHead  = dbConn.prepareStatement( "UPDATE APP.ventas SET cliente = ?, modo_pago = ?, total = ?"+
+                                                 " WHERE id_venta = ?" );
+
+        psSelectLines = dbConn.prepareStatement( "SELECT id_ventas_detalle, cantidad, id_nombre, precio"+
+                                                 " FROM APP.ventas_detalle WHERE id_venta = ?" );
+
+        psUpdateLine  = dbConn.prepareStatement( "UPDATE APP.ventas_detalle SET cantidad = ?, precio = ?"+
+                                                 " WHERE id_ventas_detalle = ?" );
+
+        psDeleteLine  = dbConn.prepareStatement( "DELETE FROM APP.ventas_detalle WHERE id_ventas_detalle = ?" );
+
+        psJournalSeq  = dbConn.prepareStatement( "UPDATE APP.diario_ventas SET secuencia = ? WHERE id_diario = 1" );
+
+        psSelectHead  = dbConn.prepareStatement( "SELECT cuando, modo_pago, total FROM APP.ventas WHERE id_venta = ?" );
+
+        psDeleteHead  = dbConn.prepareStatement( "DELETE FROM APP.ventas WHERE id_venta = ?" );
+
+        summary = new SalesSummaryWriter( dbConn );
+    }
+
+    /**
+     * Graba en una única transacción los tickets que estaban en el diario
+     * (ver BillsJournal) y, en esa misma transacción, anota cuál es la última
+     * entrada del diario aplicada: así, pase lo que pase, ninguna entrada se
+     * aplica dos veces ni se queda sin aplicar.
+     *
+     * @param entries Entradas del diario, ordenadas por nº de secuencia.
+     * @throws SQLException
+     */
+    synchronized void insert( List<BillsJournal.Entry> entries ) throws SQLException
+    {
+        Savepoint savepoint = dbConn.setSavepoint();
+
+        try
+        {
+            for( BillsJournal.Entry entry : entries )
+            {
+                writeBill( entry.bill, entry.nWhen );
+            }
+
+            psJournalSeq.setLong( 1, entries.get( entries.size() - 1 ).nSeq );
+            psJournalSeq.executeUpdate();
+            dbConn.releaseSavepoint( savepoint );
+        }
+        catch( SQLException exc )
+        {
+            rollback( savepoint, entries );
+            throw exc;
+        }
+        catch( RuntimeException exc )    // P.ej. un ticket mal formado: tampoco puede quedar a medias
+        {
+            rollback( savepoint, entries );
+            throw exc;
+        }
+
+        commit();
+    }
+
+    /**
+     * Anota como aplicada una entrada del diario que la DB no acepta (ver
+     * BillsJournal), sin grabar su ticket.
+     *
+     * @param nSeq Nº de secuencia de la entrada.
+     * @throws SQLException
+     */
+    synchronized void skip( long nSeq ) throws SQLException
+    {
+        psJournalSeq.setLong( 1, nSeq );
+        psJournalSeq.executeUpdate();
+
+        commit();
+    }
+
+    /**
+     * Actualiza un ticket ya grabado escribiendo sólo las diferencias entre lo
+     * que hay en la DB y lo que hay en memoria. Si el ticket no estaba grabado
+     * (o ya no existe en la DB), se inserta.
+     *
+     * @param bill Ticket a actualizar
+     * @return El mismo ticket.
+     * @throws SQLException
+     */
+    synchronized Bill update( Bill bill ) throws SQLException
+    {
+        Savepoint savepoint = dbConn.setSavepoint();
+
+        try
+        {
+            Head head = (bill.getId() < 0 ? null : readHead( bill.getId() ));
+
+            if( head == null )     // No existía: se graba como nuevo
+            {
+                writeBill( bill, System.currentTimeMillis() );
+            }
+            else
+            {
+                List<BillLine> lstStored = readLines( bill.getId() );
+
+                // En el resumen se resta el ticket como estaba y se suma como está ahora
+                summary.subtract( head.tsWhen, head.nPayMode, head.nTotal, lstStored );
+                updateHead( bill );
+                updateLines( bill, lstStored );
+                summary.add( head.tsWhen, bill.getPayModeAsInt(), bill.getTotal(), bill.getLines() );
+            }
+
+            dbConn.releaseSavepoint( savepoint );
+        }
+        catch( SQLException exc )
+        {
+            clearBatches();
+            dbConn.rollback( savepoint );
+            throw exc;
+        }
+
+        commit();
+
+        return bill;
+    }
+
+    /**
+     * Borra los tickets (y los resta del resumen de ventas) en una única
+     * transacción. Los que ya no existen en la DB se ignoran.
+     *
+     * @param bills Tickets a borrar.
+     * @throws SQLException
+     */
+    synchronized void delete( List<Bill> bills ) throws SQLException
+    {
+        Savepoint savepoint = dbConn.setSavepoint();
+
+        try
+        {
+            boolean bDeletes = false;
+
+            for( Bill bill : bills )
+            {
+                Head head = readHead( bill.getId() );
+
+                if( head == null )
+                    continue;
+
+                summary.subtract( head.tsWhen, head.nPayMode, head.nTotal, readLines( bill.getId() ) );
+
+                // La relación es ON DELETE CASCADE => las líneas se borran automáticamente
+                psDeleteHead.setInt( 1, bill.getId() );
+                psDeleteHead.addBatch();
+                bDeletes = true;
+            }
+
+            if( bDeletes )
+                psDeleteHead.executeBatch();
+
+            dbConn.releaseSavepoint( savepoint );
+        }
+        catch( SQLException exc )
+        {
+            clearBatches();
+            dbConn.rollback( savepoint );
+            throw exc;
+        }
+
+        commit();
+    }
+
+    synchronized void close() throws SQLException
+    {
+        // No puede haber nada pendiente: insert() no retorna hasta que se hace el commit
+        dbConn.close();    // dbConn.close() cierra automáticamente todos los recursos asociados
+    }
+
+    //------------------------------------------------------------------------//
+
+    private void rollback( Savepoint savepoint, List<BillsJournal.Entry> entries ) throws SQLException
+    {
+        clearBatches();
+        dbConn.rollback( savepoint );
+
+        for( BillsJournal.Entry entry : entries )    // Los ids asignados ya no son válidos
+            entry.bill.setId( -1 );
+    }
+
+    // Cabecera, líneas y resumen de ventas de un ticket nuevo
+    private void writeBill( Bill bill, long nWhen ) throws SQLException
+    {
+        writeHead( bill, nWhen );
+        writeLines( bill.getId(), bill.getLines() );
+        summary.add( new Timestamp( nWhen ), bill.getPayModeAsInt(), bill.getTotal(), bill.getLines() );
+    }
+
+    private void writeHead( Bill bill, long nWhen ) throws SQLException
+    {
+        psInsertHead.clearParameters();
+        psInsertHead.setString(     1, bill.getCustomer() );
+        psInsertHead.setInt(        2, bill.getPayModeAsInt() );
+        psInsertHead.setTimestamp(  3, new Timestamp( nWhen ) );
+        psInsertHead.setBigDecimal( 4, Money.toBigDecimal( bill.getTotal() ) );
+        psInsertHead.executeUpdate();
+
+        ResultSet rs = psInsertHead.getGeneratedKeys();
+
+        if( rs.next() )    // Solo hay un record en este ResultSet
+            bill.setId( rs.getInt( 1 ) );
+
+        rs.close();
+    }
+
+    // Todas las líneas viajan a Derby de una sola vez
+    private void writeLines( int nBillId, List<BillLine> lines ) throws SQLException
+    {
+        if( lines.isEmpty() )
+            return;
+
+        for( BillLine line : lines )
+        {
+            psInsertLines.setInt(        1, nBillId );
+            psInsertLines.setInt(        2, line.getQuantity() );
+            psInsertLines.setInt(        3, names.getId( line.getItem() ) );
+            psInsertLines.setBigDecimal( 4, Money.toBigDecimal( line.getPrice() ) );
+            psInsertLines.addBatch();
+        }
+
+        psInsertLines.executeBatch();
+    }
+
+    // Retorna null si el ticket no existe en la DB
+    private Head readHead( int nBillId ) throws SQLException
+    {
+        Head head = null;
+
+        psSelectHead.setInt( 1, nBillId );
+
+        ResultSet rs = psSelectHead.executeQuery();
+
+        if( rs.next() )
+            head = new Head( rs.getTimestamp( 1 ), rs.getInt( 2 ), Money.valueOf( rs.getBigDecimal( 3 ) ) );
+
+        rs.close();
+
+        return head;
+    }
+
+    private void updateHead( Bill bill ) throws SQLException
+    {
+        psUpdateHead.clearParameters();
+        psUpdateHead.setString(     1, bill.getCustomer() );
+        psUpdateHead.setInt(        2, bill.getPayModeAsInt() );
+        psUpdateHead.setBigDecimal( 3, Money.toBigDecimal( bill.getTotal() ) );
+        psUpdateHead.setInt(        4, bill.getId() );
+
+        psUpdateHead.executeUpdate();
+    }
+
+    /**
+     * Compara las líneas grabadas con las del ticket en memoria y graba sólo
+     * las diferencias.
+     * <p>
+     * Las líneas que no tienen id (porque se han creado en memoria) se intentan
+     * emparejar con alguna línea grabada del mismo producto y precio: así una
+     * línea a la que sólo se le ha cambiado la cantidad se actualiza en lugar de
+     * borrarse y volverse a insertar.
+     */
+    private void updateLines( Bill bill, List<BillLine> lstInDB ) throws SQLException
+    {
+        List<BillLine> lstStored = new ArrayList<BillLine>( lstInDB );   // Se van quitando según se emparejan
+        List<BillLine> lstNew    = new ArrayList<BillLine>();
+        boolean        bUpdates  = false;
+
+        // Primero las que tienen id: son las que se leyeron de la DB
+        for( BillLine line : bill.getLines() )
+        {
+            BillLine stored = (line.getId() < 0 ? null : removeById( lstStored, line.getId() ));
+
+            if( stored == null )
+            {
+                line.setId( -1 );         // Su id ya no es válido (si lo tenía)
+            }
+            else if( isChanged( stored, line ) )
+            {
+                addUpdateLine( line );
+                bUpdates = true;
+            }
+        }
+
+        // Después las que no tienen id
+        for( BillLine line : bill.getLines() )
+        {
+            if( line.getId() > -1 )
+                continue;
+
+            BillLine stored = removeMatching( lstStored, line );
+
+            if( stored == null )
+            {
+                lstNew.add( line );
+            }
+            else
+            {
+                line.setId( stored.getId() );
+
+                if( isChanged( stored, line ) )
+                {
+                    addUpdateLine( line );
+                    bUpdates = true;
+                }
+            }
+        }
+
+        // Las que quedan en la DB sin emparejar, ya no existen en el ticket
+        for( BillLine stored : lstStored )
+        {
+            psDeleteLine.setInt( 1, stored.getId() );
+            psDeleteLine.addBatch();
+        }
+
+        if( bUpdates )
+            psUpdateLine.executeBatch();
+
+        if( ! lstStored.isEmpty() )
+            psDeleteLine.executeBatch();
+
+        writeLines( bill.getId(), lstNew );
+    }
+
+    private List<BillLine> readLines( int nBillId ) throws SQLException
+    {
+        List<BillLine> lines = new ArrayList<BillLine>();
+
+        psSelectLines.setInt( 1, nBillId );
+
+        ResultSet rs = psSelectLines.executeQuery();
+
+        while( rs.next() )
+        {
+            BillLine line = new BillLine( rs.getInt( 2 ), names.getName( rs.getInt( 3 ) ), Money.valueOf( rs.getBigDecimal( 4 ) ) );
+                     line.setId( rs.getInt( 1 ) );
+            lines.add( line );
+        }
+
+        rs.close();
+
+        return lines;
+    }
+
+    private void addUpdateLine( BillLine line ) throws SQLException
+    {
+        psUpdateLine.setInt(        1, line.getQuantity() );
+        psUpdateLine.setBigDecimal( 2, Money.toBigDecimal( line.getPrice() ) );
+        psUpdateLine.setInt(        3, line.getId() );
+        psUpdateLine.addBatch();
+    }
+
+    // Para que un error no deje sentencias pendientes que se ejecutarían con el siguiente ticket
+    private void clearBatches() throws SQLException
+    {
+        psInsertLines.clearBatch();
+        psUpdateLine.clearBatch();
+        psDeleteLine.clearBatch();
+        psDeleteHead.clearBatch();
+    }
+
+    private boolean isChanged( BillLine stored, BillLine line )
+    {
+        return (stored.getQuantity() != line.getQuantity()) ||
+               (stored.getPrice() != line.getPrice());
+    }
+
+    private BillLine removeById( List<BillLine> lines, int nId )
+    {
+        for( Iterator<BillLine> it = lines.iterator(); it.hasNext(); )
+        {
+            BillLine line = it.next();
+
+            if( line.getId() == nId )
+            {
+                it.remove();
+                return line;
+            }
+        }
+
+        return null;
+    }
+
+    // Busca una línea del mismo producto y precio: si hay una con la misma cantidad, mejor
+    private BillLine removeMatching( List<BillLine> lines, BillLine target )
+    {
+        BillLine found = null;
+
+        for( BillLine line : lines )
+        {
+            if( line.getItem().equals( target.getItem() ) &&
+                line.getPrice() == target.getPrice() )
+            {
+                if( found == null || line.getQuantity() == target.getQuantity() )
+                    found = line;
+
+                if( line.getQuantity() == target.getQuantity() )
+                    break;
+            }
+        }
+
+        if( found != null )
+            lines.remove( found );
+
+        return found;
+    }
+
+    /**
+     * Hace el commit de la transacción en curso.
+     * <p>
+     * El primer thread que llega espera (como mucho) nCommitWindow ms: mientras
+     * espera libera el monitor, por lo que otros threads pueden grabar sus
+     * tickets en la misma transacción. Después hace un único commit para todos
+     * y despierta al resto, que simplemente estaban esperando a que su
+     * generación quedase confirmada.
+     * <p>
+     * Se invoca siempre teniendo el monitor de this.
+     */
+    private void commit() throws SQLException
+    {
+        long nMyGen = nGeneration;
+
+        if( nCommitWindow == 0 )
+        {
+            dbConn.commit();
+            nGeneration++;
+            return;
+        }
+
+        if( bLeaderWaiting )    // Otro thread hará el commit por nosotros
+        {
+            boolean bInterrupted = false;
+
+            while( nGeneration == nMyGen )
+            {
+                try{ wait(); } catch( InterruptedException ie ) { bInterrupted = true; }
+            }
+
+            if( bInterrupted )
+                Thread.currentThread().interrupt();
+
+            if( nFailedGen == nMyGen )
+                throw new SQLException( "Ha fallado el commit compartido con otros tickets" );
+
+            return;
+        }
+
+        bLeaderWaiting = true;
+
+        try
+        {
+            waitCommitWindow();
+            dbConn.commit();
+        }
+        catch( SQLException exc )
+        {
+            nFailedGen = nMyGen;
+            try{ dbConn.rollback(); } catch( SQLException se ) { /* Nada que hacer */ }
+            throw exc;
+        }
+        finally
+        {
+            bLeaderWaiting = false;
+            nGeneration++;
+            notifyAll();
+        }
+    }
+
+    private void waitCommitWindow()
+    {
+        long    nDeadline    = System.currentTimeMillis() + nCommitWindow;
+        long    nRemaining   = nCommitWindow;
+        boolean bInterrupted = false;
+
+        while( nRemaining > 0 )
+        {
+            try
+            {
+                wait( nRemaining );
+            }
+            catch( InterruptedException ie )
+            {
+                bInterrupted = true;    // Hay que hacer el commit de todos modos
+                break;
+            }
+
+            nRemaining = nDeadline - System.currentTimeMillis();
+        }
+
+        if( bInterrupted )
+            Thread.currentThread().interrupt();
+    }
+
+    //------------------------------------------------------------------------//
+    // INNER CLASS: Lo que hace falta de la cabecera para mantener el resumen
+    //------------------------------------------------------------------------//
+    private static final class Head
+    {
+        private final Timestamp tsWhen;
+        private final int       nPayMode;
+        private final long      nTotal;
+
+        Head( Timestamp tsWhen, int nPayMode, long nTotal )
+        {
+            this.tsWhen   = tsWhen;
+            this.nPayMode = nPayMode;
+            this.nTotal   = nTotal;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Un pequeño pool de conexiones a Derby embebido.
+ * <p>
+ * Una Connection (y sus PreparedStatements) no deben ser utilizadas por varios
+ * threads a la vez; con este pool, cada thread toma una conexión, la usa y la
+ * devuelve, por lo que p.ej. un listado largo puede estar ejecutándose a la vez
+ * que se consultan o graban otras cosas.
+ * <p>
+ * Cada conexión lleva consigo su propia caché de PreparedStatements (ver
+ * StatementCache), así que lo que se entrega y devuelve es la caché.
+ * <p>
+ * Uso:
+ * <pre>
+ *    StatementCache sc = pool.acquire();
+ *    try { ... } finally { pool.release( sc ); }
+ * </pre>
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class ConnectionPool
+{
+    private final BlockingQueue<StatementCache> queue;
+    private final List<StatementCache>          all;     // Para poder cerrarlas todas
+
+    //------------------------------------------------------------------------//
+
+    /**
+     * Crea el pool abriendo todas las conexiones.
+     *
+     * @param sUrl  URL de conexión
+     * @param nSize Nº de conexiones (como mínimo 1)
+     * @throws SQLException
+     */
+    ConnectionPool( String sUrl, int nSize ) throws SQLException
+    {
+        nSize = Math.max( 1, nSize );
+        queue = new ArrayBlockingQueue<StatementCache>( nSize );
+        all   = new ArrayList<StatementCache>( nSize );
+
+        for( int n = 0; n < nSize; n++ )
+        {
+            StatementCache sc = new StatementCache( DriverManager.getConnection( sUrl ) );
+
+            all.add( sc );
+            queue.add( sc );
+        }
+    }
+
+    /**
+     * Toma una conexión del pool; si no hay ninguna libre, espera a que se
+     * devuelva alguna.
+     *
+     * @return La caché de la conexión tomada.
+     * @throws SQLException Si el thread es interrumpido mientras espera.
+     */
+    StatementCache acquire() throws SQLException
+    {
+        try
+        {
+            return queue.take();
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException( "Interrumpido mientras se esperaba una conexión", ie );
+        }
+    }
+
+    /**
+     * Devuelve la conexión al pool.
+     *
+     * @param sc La caché obtenida mediante acquire()
+     */
+    void release( StatementCache sc )
+    {
+        if( sc != null )
+            queue.offer( sc );
+    }
+
+    /**
+     * Cierra todas las conexiones del pool.
+     */
+    void close()
+    {
+        for( StatementCache sc : all )
+        {
+            sc.clear();
+
+            try{ sc.getConnection().close(); } catch( SQLException se ) { /* Nada que hacer */ }
+        }
+
+        all.clear();
+        queue.clear();
+    }
+}
\ No newline at end of file
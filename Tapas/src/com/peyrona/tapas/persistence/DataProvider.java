@@ -22,9 +22,13 @@ import com.peyrona.tapas.Utils;
 import com.peyrona.tapas.persistence.Bill.Payment;
 import com.peyrona.tapas.swing.SwingUtils;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 /**
@@ -41,15 +45,24 @@ public final class DataProvider implements DataProviderable
 {
     public enum DataSources { DerbyEmbedded };   // Para facilitar el añadir más tipos de almacenamiento
 
-    private static DataSources  type     = null;
-    private static DataProvider instance = null;    // Para el Singleton
+    private static volatile DataSources  type     = null;
+    private static volatile DataProvider instance = null;    // Para el Singleton
 
     private DataProviderable provider = null;
 
     // Como Configuration se utiliza con mucha frecuencia, para no tener que estar
     // leyéndola cada vez de la DB, la instancia Configuration la ponemos en una
     // variable que la usamos a modo de caché.
-    private Configuration config = null;
+    // (volatile porque DataProvider puede usarse desde varios threads a la vez)
+    private volatile Configuration config = null;
+
+    // Lo mismo con la Carta (categorías y productos), que se muestra cada vez que
+    // se abre o modifica una cuenta. Cada vez que se guarda la Carta se incrementa
+    // la versión, y la caché sólo se vuelve a leer de la DB si la versión cambió.
+    private final AtomicLong    menuVersion  = new AtomicLong( 0 );
+    private final Object        menuLock     = new Object();
+    private       long          nMenuVersion = -1;       // Versión de lstMenu (protegidos por menuLock)
+    private       List<Product> lstMenu      = null;
 
     //------------------------------------------------------------------------//
 
@@ -60,11 +73,16 @@ public final class DataProvider implements DataProviderable
 
     public static DataProvider getInstance()
     {
+        // "Double-checked locking": sólo se sincroniza mientras no existe la
+        // instancia. Hay que volver a comprobarlo dentro del bloque sincronizado
+        // porque otro thread puede haberla creado mientras éste esperaba, y
+        // "instance" tiene que ser volatile para que funcione correctamente.
         if( instance == null )
         {
             synchronized( DataProvider.class )
             {
-                instance = new DataProvider();
+                if( instance == null )
+                    instance = new DataProvider();
             }
         }
 
@@ -167,6 +185,46 @@ public final class DataProvider implements DataProviderable
             ex.printStackTrace( System.err );
             onFatalError( ex );
         }
+        finally
+        {
+            // Lo que haya en la caché ya no vale (también si ha fallado: puede haberse
+            // grabado una parte, así que lo seguro es volver a leer de la DB)
+            menuVersion.incrementAndGet();
+        }
+    }
+
+    /**
+     * Retorna la Carta (categorías y productos) desde una caché compartida por
+     * toda la aplicación: sólo se lee de la DB la primera vez y después de cada
+     * setCategoriesAndProducts(...).
+     * <p>
+     * La lista y sus productos son compartidos, por lo que no deben modificarse:
+     * para editar la Carta hay que usar getCategoriesAndProducts(), que retorna
+     * siempre una copia nueva.
+     *
+     * @return La Carta (lista no modificable).
+     */
+    public List<Product> getMenu()
+    {
+        synchronized( menuLock )
+        {
+            // Se lee la versión antes que la DB: si se guarda la Carta mientras se
+            // está leyendo, la próxima vez se volverá a leer.
+            long nVersion = menuVersion.get();
+
+            if( lstMenu == null || nMenuVersion != nVersion )
+            {
+                List<Product> products = getCategoriesAndProducts();
+
+                if( products != null )
+                {
+                    lstMenu      = Collections.unmodifiableList( products );
+                    nMenuVersion = nVersion;
+                }
+            }
+
+            return lstMenu;
+        }
     }
 
     @Override
@@ -250,6 +308,53 @@ public final class DataProvider implements DataProviderable
         return bills;
     }
 
+    @Override
+    public void findBills( Date dFrom, Date dTo, Payment[] payments, BillProcessor processor )
+    {
+        try
+        {
+            provider.findBills( dFrom, dTo, payments, processor );
+        }
+        catch( Exception ex )
+        {
+            onFatalError( ex );
+        }
+    }
+
+    @Override
+    public List<SalesSummary> findSalesSummary( Date dFrom, Date dTo )
+    {
+        List<SalesSummary> list = new ArrayList<SalesSummary>();
+
+        try
+        {
+            list = provider.findSalesSummary( dFrom, dTo );
+        }
+        catch( Exception ex )
+        {
+            onFatalError( ex );
+        }
+
+        return list;
+    }
+
+    @Override
+    public Map<String,Integer> findProductUnits( Date dFrom, Date dTo )
+    {
+        Map<String,Integer> map = new LinkedHashMap<String,Integer>();
+
+        try
+        {
+            map = provider.findProductUnits( dFrom, dTo );
+        }
+        catch( Exception ex )
+        {
+            onFatalError( ex );
+        }
+
+        return map;
+    }
+
     //------------------------------------------------------------------------//
 
     private DataProvider()
@@ -18,14 +18,20 @@
 
 package com.peyrona.tapas.persistence;
 
+import com.peyrona.tapas.Money;
 import com.peyrona.tapas.Utils;
+import java.awt.Image;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Esta clase proporciona almacenamiento de datos utilizando Derby DB embebido.
@@ -59,9 +65,38 @@ import java.util.List;
 
 final class DataProvider4EmbeddedDerby implements DataProviderable
 {
-    private Connection        dbConn            = null;
-    private PreparedStatement psInsertBillHead  = null;
-    private PreparedStatement psInsertBillLines = null;
+    private static final String sDB_URL = "jdbc:derby:tapas;user=admin;password=admin";
+
+    // Tablas añadidas después de la primera versión y el script que las crea:
+    // si la tabla no existe en la DB se ejecuta el script (ver upgrade()).
+    // Si es "TABLA.COLUMNA", se ejecuta si no existe esa columna.
+    // Se aplican en este orden: cada script cuenta con que los anteriores ya
+    // se aplicaron, por lo que los nuevos siempre se añaden al final.
+    private static final String[][] asUPGRADES = { { "DIARIO_VENTAS"           , "derby_upgrade_diario.sql"     },
+                                                   { "RESUMEN_VENTAS"          , "derby_upgrade_resumen.sql"    },
+                                                   { "NOMBRES_PRODUCTO"        , "derby_upgrade_nombres.sql"    },
+                                                   { "PRODUCTOS.ORDEN"         , "derby_upgrade_carta.sql"      },
+                                                   { "IMAGENES"                , "derby_upgrade_imagenes.sql"   },
+                                                   { "IMAGENES.MINIATURA_BOTON", "derby_upgrade_miniaturas.sql" } };
+
+    // Milisegundos que se espera para que varios tickets compartan un mismo commit
+    // (ver BillsWriter). Por defecto es 0: cada ticket hace su propio commit.
+    private static final int nCOMMIT_WINDOW = Integer.getInteger( "tapas.db.commit_window", 0 );
+
+    // Nº de filas que se piden a Derby de cada vez al recorrer tickets
+    private static final int nFETCH_SIZE = Integer.getInteger( "tapas.db.fetch_size", 200 );
+
+    // Nº de conexiones para consultas y resto de operaciones (ver ConnectionPool)
+    private static final int nPOOL_SIZE = Integer.getInteger( "tapas.db.pool_size", 3 );
+
+    // Nº máximo de tickets del diario que se graban en la DB en cada transacción
+    private static final int nJOURNAL_BATCH = Integer.getInteger( "tapas.db.journal_batch", 64 );
+
+    private ConnectionPool pool       = null;
+    private BillsWriter    billWriter = null;
+    private BillsJournal   journal    = null;
+    private ProductNames   names      = null;
+    private IconLoader     iconLoader = null;
 
     //------------------------------------------------------------------------//
 
@@ -77,10 +112,11 @@ final class DataProvider4EmbeddedDerby implements DataProviderable
 
         System.setProperty( "derby.system.home", sDbPath );
         Class.forName( "org.apache.derby.jdbc.EmbeddedDriver" );
-        dbConn = DriverManager.getConnection( "jdbc:derby:tapas;user=admin;password=admin;create="+ (bCreateTables ? "true" : "false") );
 
         if( bCreateTables )
         {
+            Connection dbConn = DriverManager.getConnection( sDB_URL +";create=true" );
+
             try
             {
                 InputStream is     = getClass().getResourceAsStream("derby_RDM.sql" );
@@ -93,23 +129,52 @@ final class DataProvider4EmbeddedDerby implements DataProviderable
                 System.err.println( "Error procesando el fichero SQL para crear el RDM." );
                 throw new SQLException( ex );
             }
+            finally
+            {
+                dbConn.close();
+            }
         }
 
-        // Estas son las dos operaciones más utilizadas: las ponemos en PreparedStatement
-        psInsertBillHead  = dbConn.prepareStatement( "INSERT INTO APP.ventas "+
-                                                     " (cliente, modo_pago, cuando, total) VALUES(?,?,?,?)",
-                                                     Statement.RETURN_GENERATED_KEYS );
+        // Tanto si es nueva como si se creó con una versión anterior
+        upgrade();
+
+        // Cada thread que necesite la DB toma una de estas conexiones
+        pool       = new ConnectionPool( sDB_URL, nPOOL_SIZE );
+        iconLoader = new IconLoader( pool );
 
-        psInsertBillLines = dbConn.prepareStatement( "INSERT INTO APP.ventas_detalle "+
-                                                     " (id_venta, cantidad, producto, precio) VALUES (?,?,?,?)" );
+        long nJournalSeq = readJournalSeq();
+
+        // Grabar tickets es la operación más utilizada: tiene su propia conexión
+        // con sus PreparedStatements y sus propias transacciones.
+        names      = new ProductNames( DriverManager.getConnection( sDB_URL ) );
+        billWriter = new BillsWriter( DriverManager.getConnection( sDB_URL ), names, nCOMMIT_WINDOW );
+
+        // Los tickets cerrados pasan primero por el diario (ver BillsJournal)
+        journal = new BillsJournal( new File( sDbPath, "tapas.journal" ), billWriter, nJournalSeq, nJOURNAL_BATCH );
     }
 
     @Override
-    public void disconnect() throws SQLException
+    public void disconnect() throws SQLException, IOException
     {
         try
         {
-            dbConn.close();    // dbConn.close() cierra automáticamente todos los recursos asociados
+            if( iconLoader != null )
+            {
+                Utils.printInfo( iconLoader.getStatistics() );
+                iconLoader.close();
+            }
+
+            if( journal != null )
+                journal.close();
+
+            if( billWriter != null )
+                billWriter.close();
+
+            if( names != null )
+                names.close();
+
+            if( pool != null )
+                pool.close();
         }
         catch( SQLException ex )
         {
@@ -131,261 +196,334 @@ final class DataProvider4EmbeddedDerby implements DataProviderable
     @Override
     public Configuration getConfiguration() throws SQLException, IOException
     {
-        Configuration conf = new Configuration();
-        Statement     stmt = null;
-        ResultSet     rs;
+        StatementCache sc = pool.acquire();
 
         try
         {
-            stmt = dbConn.createStatement();
-            rs   = stmt.executeQuery( "SELECT * FROM APP.configuracion WHERE id_configuracion = 1" );
+            Configuration conf = new Configuration();
+            Statement     stmt = null;
+            ResultSet     rs;
+
+            try
+            {
+                stmt = sc.getConnection().createStatement();
+                rs   = stmt.executeQuery( "SELECT * FROM APP.configuracion WHERE id_configuracion = 1" );
 
-            if( rs.next() )
+                if( rs.next() )
+                {
+                    conf.setPassword( rs.getString( "contrasena" ) );
+                    conf.setEmail( rs.getString( "email" ) );
+                    conf.setFullScreenMode( rs.getInt( "full_screen" ) != 0 );
+                    conf.setAutoAlignMode( rs.getInt( "auto_alinear" ) != 0 );
+                    conf.setTicketFooter( rs.getString( "ticket_pie" ) );
+                    conf.setTicketHeader( rs.getString( "ticket_cabecera" ) );
+                    conf.setTicketHeaderImage( loadImage( rs.getString( "ticket_imagen_hash" ) ) );
+                }
+            }
+            catch( SQLException exc )
             {
-                conf.setPassword( rs.getString( "contrasena" ) );
-                conf.setEmail( rs.getString( "email" ) );
-                conf.setFullScreenMode( rs.getInt( "full_screen" ) != 0 );
-                conf.setAutoAlignMode( rs.getInt( "auto_alinear" ) != 0 );
-                conf.setTicketFooter( rs.getString( "ticket_pie" ) );
-                conf.setTicketHeader( rs.getString( "ticket_cabecera" ) );
-                conf.setTicketHeaderImage( Utils.readImageFromBlob( rs, "ticket_imagen" ) );
+                throw exc;
             }
-        }
-        catch( SQLException exc )
-        {
-            throw exc;
+            finally
+            {
+                if( stmt != null )    // stmt.close() cierra automáticamente los rs asociados
+                {
+                    try{ stmt.close(); } catch( SQLException se ) { /* Nada que hacer */ }
+                }
+            }
+
+            return conf;
         }
         finally
         {
-            if( stmt != null )    // stmt.close() cierra automáticamente los rs asociados
-            {
-                try{ stmt.close(); } catch( SQLException se ) { /* Nada que hacer */ }
-            }
+            pool.release( sc );
         }
-
-        return conf;
     }
 
     @Override
     public void setConfiguration( Configuration config ) throws SQLException, IOException
     {
-        PreparedStatement psUpdate = dbConn.prepareStatement(
-            "UPDATE APP.configuracion "+
-            " SET contrasena = ?, email = ?, full_screen = ?, auto_alinear = ?,"+
-            "     ticket_imagen = ?, ticket_cabecera = ?, ticket_pie = ?"+
-            " WHERE id_configuracion = 1");
-
-        psUpdate.setString(     1, config.getPassword() );
-        psUpdate.setString(     2, config.getEmail() );
-        psUpdate.setInt(        3, (config.isFullScreenSelected() ? 1 : 0) );
-        psUpdate.setInt(        4, (config.isAutoAlignSelected()  ? 1 : 0) );
-        Utils.writeImageToBlob( 5, psUpdate, config.getTicketHeaderImage() );
-        psUpdate.setString(     6, config.getTicketHeader() );
-        psUpdate.setString(     7, config.getTicketFooter() );
-        psUpdate.executeUpdate();
-        psUpdate.close();
+        StatementCache sc     = pool.acquire();
+        Connection     dbConn = sc.getConnection();
+        boolean        bDone  = false;
+
+        try
+        {
+            Image  image = config.getTicketHeaderImage();
+            String sHash = Utils.getImageHash( image );
+
+            // La imagen va al almacén de imágenes: aquí sólo se guarda su hash
+            dbConn.setAutoCommit( false );
+
+            if( sHash != null )
+                ImageStore.put( sc, sHash, image );
+
+            PreparedStatement psUpdate = sc.get(
+                "UPDATE APP.configuracion "+
+                " SET contrasena = ?, email = ?, full_screen = ?, auto_alinear = ?,"+
+                "     ticket_imagen_hash = ?, ticket_cabecera = ?, ticket_pie = ?"+
+                " WHERE id_configuracion = 1");
+
+            psUpdate.setString( 1, config.getPassword() );
+            psUpdate.setString( 2, config.getEmail() );
+            psUpdate.setInt(    3, (config.isFullScreenSelected() ? 1 : 0) );
+            psUpdate.setInt(    4, (config.isAutoAlignSelected()  ? 1 : 0) );
+            psUpdate.setString( 5, sHash );
+            psUpdate.setString( 6, config.getTicketHeader() );
+            psUpdate.setString( 7, config.getTicketFooter() );
+            psUpdate.executeUpdate();
+
+            ImageStore.purge( sc );    // Por si la imagen anterior ya no la usa nadie
+
+            dbConn.commit();
+            bDone = true;
+        }
+        finally
+        {
+            if( ! bDone )
+            {
+                try{ dbConn.rollback(); } catch( SQLException se ) { /* Nada que hacer */ }
+            }
+
+            dbConn.setAutoCommit( true );
+            pool.release( sc );
+        }
     }
 
     @Override
     public List<Product> getCategoriesAndProducts() throws ClassNotFoundException, IOException, SQLException
     {
-        List<Product> lstProducts = new ArrayList<Product>();
-
-        String sQuery = "SELECT APP.categorias.nombre AS CatNombre, APP.categorias.icono AS CatIcono, APP.productos.*"+
-                        "   FROM APP.categorias, APP.productos"+
-                        "   WHERE APP.categorias.id_categoria = APP.productos.id_categoria"+
-                        "   ORDER BY APP.categorias.id_categoria, APP.productos.nombre";
-
-        Statement stmt = null;
-        ResultSet rs;
+        StatementCache sc = pool.acquire();
+        ResultSet      rs = null;
 
         try
         {
-            stmt = dbConn.createStatement();
-            rs   = stmt.executeQuery( sQuery );
+            // Sólo los textos: los iconos se cargan cuando se necesitan (ver IconLoader)
+            List<Product>        lstCategories = new ArrayList<Product>();
+            Map<Integer,Product> mapCategories = new HashMap<Integer,Product>();
+
+            rs = sc.get( "SELECT id_categoria, nombre, orden, icono_hash"+
+                         "   FROM APP.categorias ORDER BY orden, id_categoria" ).executeQuery();
 
             while( rs.next() )
             {
                 Product category = new Product();
-                        category.setCaption( rs.getString( "CatNombre" ) );
+                        category.setId( rs.getInt( "id_categoria" ) );
+                        category.setCaption( rs.getString( "nombre" ) );
 
-                // Buscamos si la categoría ya había sido añadida
-                // (El método Product::equals() NO tiene en cuenta el icono)
-                int nIndex = lstProducts.indexOf( category );
+                category.setClean( rs.getInt( "orden" ), -1, rs.getString( "icono_hash" ) );
 
-                // De no ser así, es una categoría nueva => añadir la inf que falta (el icono)
-                if( nIndex == -1 )
-                {
-                    category.setIcon( Utils.readImageFromBlob( rs, "CatIcono" ) );
-                    lstProducts.add( category );
-                }
+                if( category.getIconHash() != null )
+                    category.setIconLoader( iconLoader );
+
+                lstCategories.add( category );
+                mapCategories.put( category.getId(), category );
+            }
 
-                // Además siempre hay un producto en la misma línea => actualizar los campos de producto
-                Product product = new Product();
+            rs.close();
+
+            rs = sc.get( "SELECT id_producto, id_categoria, nombre, descripcion, precio, orden, icono_hash"+
+                         "   FROM APP.productos ORDER BY id_categoria, orden, nombre" ).executeQuery();
+
+            while( rs.next() )
+            {
+                Product category = mapCategories.get( rs.getInt( "id_categoria" ) );
+                Product product  = new Product();
+                        product.setId( rs.getInt( "id_producto" ) );
                         product.setCaption( rs.getString( "nombre" ) );
                         product.setDescription( rs.getString( "descripcion" ) );
                         product.setPrice( rs.getBigDecimal( "precio" ) );
-                        product.setIcon( Utils.readImageFromBlob( rs, "icono" ) );
-                lstProducts.get( lstProducts.size() - 1 ).addToSubMenu( product );
+
+                product.setClean( rs.getInt( "orden" ), rs.getInt( "id_categoria" ), rs.getString( "icono_hash" ) );
+
+                if( product.getIconHash() != null )
+                    product.setIconLoader( iconLoader );
+
+                if( category != null )
+                    category.addToSubMenu( product );
             }
-        }
-        catch( SQLException exc )
-        {
-            throw exc;
+
+            return lstCategories;
         }
         finally
         {
-            if( stmt != null )    // stmt.close() cierra automáticamente los rs asociados
+            if( rs != null )    // El PreparedStatement no se cierra: está en la caché
             {
-                try{ stmt.close(); } catch( SQLException se ) { /* Nothing to do */ }
+                try{ rs.close(); } catch( SQLException se ) { /* Nothing to do */ }
             }
-        }
 
-        return lstProducts;
+            pool.release( sc );
+        }
     }
 
-    // Este método está implementado a lo bestia: borra todo y lo vuelve a grabar todo.
-    // Es bestia, sí, pero es simple y efectivo, además una menú de bar son pocos registros.
+    // Sólo se graba lo que ha cambiado (ver MenuWriter)
     @Override
     public void setCategoriesAndProducts( List<Product> products ) throws IOException, SQLException
     {
-        PreparedStatement psCategories = dbConn.prepareStatement(
-                "INSERT INTO App.categorias (nombre, icono) VALUES (?,?)",
-                Statement.RETURN_GENERATED_KEYS );
+        StatementCache sc = pool.acquire();
 
-        PreparedStatement psProducts = dbConn.prepareStatement(
-                "INSERT INTO App.productos (id_categoria, nombre, descripcion, precio, icono) VALUES (?,?,?,?,?)",
-                Statement.RETURN_GENERATED_KEYS );
-
-        // Puesto que la relación con la tabla Productos es ON DELETE CASCADE, al borrar
-        // las categorías, se borran automáticamente los productos
-        executeCommand( "DELETE FROM App.categorias" );
-
-        for( Product category : products )
+        try
         {
-            psCategories.clearParameters();
-            psCategories.setString( 1, category.getCaption() );
-            Utils.writeImageToBlob( 2, psCategories, category.getImage() );
-            psCategories.executeUpdate();
-
-            ResultSet rs = psCategories.getGeneratedKeys();
-
-            if( rs.next() )    // Sólo hay un record en el ResultSet y éste contiene el ID de la última categoría insertada
-            {
-                category.setId( rs.getInt( 1 ) );
-            }
-
-            rs.close();
-
-            for( Product product : category.getSubMenu() )
-            {
-                psProducts.clearParameters();
-                psProducts.setInt(        1, category.getId() );
-                psProducts.setString(     2, product.getCaption() );
-                psProducts.setString(     3, product.getDescription() );
-                psProducts.setBigDecimal( 4, product.getPrice() );
-                Utils.writeImageToBlob(   5, psProducts, product.getImage() );
-                psProducts.executeUpdate();
-            }
+            new MenuWriter( sc, iconLoader ).write( products );
+        }
+        finally
+        {
+            pool.release( sc );
         }
-
-        psProducts.close();
-        psCategories.close();
     }
 
     @Override
-    public Bill insertBill( Bill bill ) throws SQLException
+    public Bill insertBill( Bill bill ) throws IOException
     {
-        // Insertamos la cabecera de la venta (ticket)
-        psInsertBillHead.clearParameters();
-        psInsertBillHead.setString(     1, bill.getCustomer() );
-        psInsertBillHead.setInt(        2, bill.getPayModeAsInt() );
-        psInsertBillHead.setTimestamp(  3, new Timestamp( System.currentTimeMillis() ) );
-        psInsertBillHead.setBigDecimal( 4, bill.getTotal() );
-        psInsertBillHead.executeUpdate();
-
-        ResultSet rs = psInsertBillHead.getGeneratedKeys();
-
-        if( rs.next() )    // Solo hay un record en este ResultSet
-            bill.setId( rs.getInt( 1 ) );
-
-        rs.close();
-
-        // Insertamos las líneas de detalle de la venta (ticket)
-        for( BillLine line : bill.getLines() )
-        {
-            psInsertBillLines.clearParameters();
-            psInsertBillLines.setInt(        1, bill.getId() );
-            psInsertBillLines.setInt(        2, line.getQuantity() );
-            psInsertBillLines.setString(     3, line.getItem() );
-            psInsertBillLines.setBigDecimal( 4, line.getPrice() );
-            psInsertBillLines.executeUpdate();
-        }
-
-        return bill;
+        // Sólo se añade al diario: se grabará en la DB en background
+        return journal.append( bill );
     }
 
     @Override
-    // Esta operación es tan poco frecuente que no merece la pena hacer un UPDATE
     public Bill updateBill( Bill bill ) throws SQLException
     {
-        deleteBill( bill );
-        return insertBill( bill );
+        journal.awaitDrained();    // El ticket podría estar aún en el diario
+
+        // Sólo se graban las diferencias y el ticket conserva su id
+        return billWriter.update( bill );
     }
 
     @Override
     public void deleteBill( Bill bill ) throws SQLException
     {
-        int nId = bill.getId();
-        // La relación es ON CASCADE DELETE => los registros asociados en la
-        // tabla ventas_detalle se borran automáticamente.
-        executeCommand( "DELETE FROM APP.ventas WHERE ventas.id = " + nId );
+        journal.awaitDrained();
+
+        // En la misma transacción se resta del resumen de ventas
+        billWriter.delete( Collections.singletonList( bill ) );
     }
 
 
     @Override
     public List<Bill> findBills( Date dFrom, Date dTo, Bill.Payment[] payments, boolean bDelete ) throws SQLException
     {
-        StringBuilder sbCondition = new StringBuilder( 512 );
+        journal.awaitDrained();    // Para que se incluyan los tickets recién cerrados
+
+        StatementCache sc = pool.acquire();
 
-        if( dFrom != null )
+        try
+        {
+            return resultSetToBillsList( sc, new BillsFilter( dFrom, dTo, payments ), bDelete );
+        }
+        finally
         {
-            sbCondition.append( "APP.ventas.cuando >= " )
-                       .append( new java.sql.Date( dFrom.getTime() ) );
+            pool.release( sc );
         }
+    }
 
-        if( dTo != null )
+    @Override
+    public void findBills( Date dFrom, Date dTo, Bill.Payment[] payments, BillProcessor processor ) throws SQLException
+    {
+        journal.awaitDrained();    // Para que se incluyan los tickets recién cerrados
+
+        StatementCache sc = pool.acquire();
+
+        try
+        {
+            processBills( sc, new BillsFilter( dFrom, dTo, payments ), processor );
+        }
+        finally
         {
-            if( sbCondition.length() > 0 )
-                sbCondition.append(  " AND " );
+            pool.release( sc );
+        }
+    }
+
+    @Override
+    public List<Bill> findBillsByCustomer( String sCustomerPattern ) throws SQLException
+    {
+        journal.awaitDrained();    // Para que se incluyan los tickets recién cerrados
+
+        StatementCache sc = pool.acquire();
 
-            sbCondition.append( "APP.ventas.cuando <= " )
-                       .append( new java.sql.Date( dTo.getTime() ) );
+        try
+        {
+            return resultSetToBillsList( sc, new BillsFilter( sCustomerPattern ), false );
+        }
+        finally
+        {
+            pool.release( sc );
         }
+    }
+
+    @Override
+    public List<SalesSummary> findSalesSummary( Date dFrom, Date dTo ) throws SQLException
+    {
+        journal.awaitDrained();
+
+        StatementCache sc = pool.acquire();
+        ResultSet      rs = null;
 
-        if( payments != null && payments.length > 0 )
+        try
         {
-            if( sbCondition.length() > 0 )
-                sbCondition.append(  " AND " );
+            PreparedStatement ps = sc.get( "SELECT dia, hora, modo_pago, tickets, total FROM APP.resumen_ventas"+
+                                           " WHERE dia BETWEEN ? AND ? AND tickets <> 0"+
+                                           " ORDER BY dia, hora, modo_pago" );
+                              ps.setDate( 1, new java.sql.Date( dFrom.getTime() ) );
+                              ps.setDate( 2, new java.sql.Date( dTo.getTime() ) );
 
-            sbCondition.append( "APP.ventas.modo_pago IN (" );
+            List<SalesSummary> list = new ArrayList<SalesSummary>();
 
-            for( Bill.Payment p : payments )
+            rs = ps.executeQuery();
+
+            while( rs.next() )
             {
-                sbCondition.append( p ).append( ',' );
+                list.add( new SalesSummary( rs.getDate( 1 ), rs.getInt( 2 ), Bill.toPayment( rs.getInt( 3 ) ),
+                                            rs.getInt( 4 ), rs.getBigDecimal( 5 ) ) );
             }
 
-            sbCondition.deleteCharAt( sbCondition.length() - 1 );   // Quitamos el último ','
-            sbCondition.append( ")" );
+            return list;
         }
+        finally
+        {
+            if( rs != null )
+            {
+                try{ rs.close(); } catch( SQLException se ) { /* Nothing to do */ }
+            }
 
-        return resultSetToBillsList( sbCondition.toString(), bDelete );
+            pool.release( sc );
+        }
     }
 
     @Override
-    public List<Bill> findBillsByCustomer( String sCustomerPattern ) throws SQLException
+    public Map<String,Integer> findProductUnits( Date dFrom, Date dTo ) throws SQLException
     {
-        return resultSetToBillsList( "APP.ventas.cliente LIKE %"+ sCustomerPattern +"%", false );
+        journal.awaitDrained();
+
+        StatementCache sc = pool.acquire();
+        ResultSet      rs = null;
+
+        try
+        {
+            PreparedStatement ps = sc.get( "SELECT producto, SUM(unidades) FROM APP.resumen_productos"+
+                                           " WHERE dia BETWEEN ? AND ?"+
+                                           " GROUP BY producto HAVING SUM(unidades) <> 0 ORDER BY producto" );
+                              ps.setDate( 1, new java.sql.Date( dFrom.getTime() ) );
+                              ps.setDate( 2, new java.sql.Date( dTo.getTime() ) );
+
+            Map<String,Integer> map = new LinkedHashMap<String,Integer>();
+
+            rs = ps.executeQuery();
+
+            while( rs.next() )
+            {
+                map.put( rs.getString( 1 ), rs.getInt( 2 ) );
+            }
+
+            return map;
+        }
+        finally
+        {
+            if( rs != null )
+            {
+                try{ rs.close(); } catch( SQLException se ) { /* Nothing to do */ }
+            }
+
+            pool.release( sc );
+        }
     }
 
     //------------------------------------------------------------------------//
@@ -440,70 +578,181 @@ final class DataProvider4EmbeddedDerby implements DataProviderable
         return ! fDbDir.exists();
     }
 
-    private void executeCommand( String sCmd ) throws SQLException
+    /**
+     * Crea las tablas (y columnas) que se han añadido en versiones posteriores
+     * y que aún no existen en la DB. Cada script se ejecuta en su propia transacción: o se
+     * aplica completo o no se aplica.
+     */
+    private void upgrade() throws SQLException, IOException
     {
-        Statement stmt = null;
+        Connection dbConn = DriverManager.getConnection( sDB_URL );
 
         try
         {
-            stmt = dbConn.createStatement();
-            stmt.execute( sCmd );
+            dbConn.setAutoCommit( false );
+
+            for( String[] asUpgrade : asUPGRADES )
+            {
+                int       nDot   = asUpgrade[0].indexOf( '.' );
+                ResultSet rs     = ((nDot < 0) ? dbConn.getMetaData().getTables(  null, "APP", asUpgrade[0], null )
+                                               : dbConn.getMetaData().getColumns( null, "APP", asUpgrade[0].substring( 0, nDot ),
+                                                                                               asUpgrade[0].substring( nDot + 1 ) ));
+                boolean   bExist = rs.next();
+
+                rs.close();
+
+                if( ! bExist )
+                {
+                    try
+                    {
+                        (new SQLExecutor( dbConn, getClass().getResourceAsStream( asUpgrade[1] ) )).extecute();
+
+                        if( "IMAGENES".equals( asUpgrade[0] ) )    // El hash no se puede calcular en SQL
+                            ImageStore.migrate( dbConn );
+
+                        dbConn.commit();
+                    }
+                    catch( SQLException exc )
+                    {
+                        dbConn.rollback();
+                        throw exc;
+                    }
+                }
+            }
+
+            dbConn.commit();    // Leer los metadatos también abre una transacción
+        }
+        finally
+        {
+            dbConn.close();
         }
-        catch( SQLException se )
+    }
+
+    /**
+     * Retorna la imagen del almacén (ver ImageStore) a través de la caché de
+     * IconLoader.
+     *
+     * @param sHash Puede ser null.
+     * @return La imagen o null si sHash es null.
+     */
+    private Image loadImage( String sHash )
+    {
+        SharedIcon icon = ((sHash == null) ? null : iconLoader.load( sHash ));
+
+        return ((icon == null) ? null : icon.getImage());
+    }
+
+    /**
+     * Retorna el nº de secuencia de la última entrada del diario grabada en la DB.
+     */
+    private long readJournalSeq() throws SQLException
+    {
+        StatementCache sc = pool.acquire();
+
+        try
         {
-            throw se;
+            ResultSet rs = sc.get( "SELECT secuencia FROM APP.diario_ventas WHERE id_diario = 1" ).executeQuery();
+
+            long nSeq = (rs.next() ? rs.getLong( 1 ) : 0);
+
+            rs.close();
+
+            return nSeq;
         }
         finally
         {
-            if( stmt != null )
-            {
-                try{ stmt.close(); } catch( SQLException se ) { /* Nothing to do */ }
-            }
+            pool.release( sc );
         }
     }
 
     // TODO: probar este método
-    private List<Bill> resultSetToBillsList( String sCondition, boolean bDelete ) throws SQLException
+    private List<Bill> resultSetToBillsList( StatementCache sc, BillsFilter filter, boolean bDelete ) throws SQLException
     {
-        ArrayList<Bill> bills = new ArrayList<Bill>();
+        final List<Bill> bills = new ArrayList<Bill>();
 
-        String    sQuery  = "SELECT * FROM APP.VENTAS, APP.VENTAS_DETALLE"+
-                            "   WHERE (APP.VENTAS.ID_VENTA = APP.VENTAS_DETALLE.ID_VENTA)"+
-                            "     AND ("+ sCondition + ")";
-        Statement stmt    = dbConn.createStatement();
-        ResultSet rs      = stmt.executeQuery( sQuery + sCondition );
-        Bill      bill    = null;
-        int       nBillId = -1;
-
-        while( rs.next() )
+        processBills( sc, filter, new BillProcessor()
         {
-            if( nBillId != rs.getInt( "ID_VENTA" ) )    // Nuevo Bill
+            @Override
+            public boolean process( Bill bill )
             {
-                nBillId = rs.getInt( "ID_VENTA" );
-
-                bill = new Bill();
-                bill.setId( nBillId );
-                bill.setCustomer( rs.getString( "CLIENTE" ) );
-                bill.setPayModeAsInt( rs.getInt( "MODO_PAGO" ) );
-                bill.setWhenWasOpen( rs.getLong( "CUANDO" ) );
                 bills.add( bill );
+                return true;
             }
-
-            BillLine billLine = new BillLine( rs.getInt( "CANTIDAD" ),
-                                              rs.getString( "PRODUCTO" ),
-                                              rs.getBigDecimal( "PRECIO" ) );
-            bill.addLine( billLine );
-        }
-
-        stmt.close();    // stmt.close() cierra automáticamente los rs asociados
+        } );
 
         if( bDelete )
-        {   // Al borrar VENTAS, VENTAS_DETALLE se borra automáticamente (ON DELETE CASCADE)
-            Statement stmtDel = dbConn.createStatement();
-                      stmtDel.executeUpdate( "DELETE FROM APP.VENTAS WHERE "+ sCondition );
-                      stmtDel.close();
+        {   // Se borran los leídos (y se restan del resumen de ventas) en una única transacción
+            billWriter.delete( bills );
         }
 
         return bills;
     }
+
+    /**
+     * Recorre los tickets que cumplen la condición entregándolos uno a uno al
+     * processor.
+     * <p>
+     * Se utiliza un cursor "forward only" y "read only" (lo más ligero que hay)
+     * y sólo se mantiene en memoria el ticket que se está leyendo: las filas
+     * vienen ordenadas por ticket, por lo que cuando cambia el id, el ticket
+     * anterior ya está completo.
+     */
+    private void processBills( StatementCache sc, BillsFilter filter, BillProcessor processor ) throws SQLException
+    {
+        String sCondition = filter.getCondition();
+        String sQuery     = "SELECT * FROM APP.VENTAS, APP.VENTAS_DETALLE"+
+                            "   WHERE (APP.VENTAS.ID_VENTA = APP.VENTAS_DETALLE.ID_VENTA)"+
+                            (sCondition.length() == 0 ? "" : " AND ("+ sCondition + ")")+
+                            "   ORDER BY APP.VENTAS.ID_VENTA, APP.VENTAS_DETALLE.ID_VENTAS_DETALLE";
+
+        // Sólo hay una sentencia por cada "forma" del filtro: se compila una sola vez
+        PreparedStatement ps      = sc.get( sQuery );
+        ResultSet         rs      = null;
+        Bill              bill    = null;
+        int               nBillId = -1;
+
+        try
+        {
+            filter.setParameters( ps, 1 );
+            ps.setFetchSize( nFETCH_SIZE );      // Por defecto es TYPE_FORWARD_ONLY y CONCUR_READ_ONLY
+
+            rs = ps.executeQuery();
+
+            while( rs.next() )
+            {
+                if( nBillId != rs.getInt( "ID_VENTA" ) )    // Nuevo Bill
+                {
+                    if( bill != null && ! processor.process( bill ) )
+                    {
+                        bill = null;
+                        break;
+                    }
+
+                    nBillId = rs.getInt( "ID_VENTA" );
+
+                    bill = new Bill();
+                    bill.setId( nBillId );
+                    bill.setCustomer( rs.getString( "CLIENTE" ) );
+                    bill.setPayModeAsInt( rs.getInt( "MODO_PAGO" ) );
+                    bill.setWhenWasOpen( rs.getTimestamp( "CUANDO" ).getTime() );
+                }
+
+                BillLine billLine = new BillLine( rs.getInt( "CANTIDAD" ),
+                                                  names.getName( rs.getInt( "ID_NOMBRE" ) ),
+                                                  Money.valueOf( rs.getBigDecimal( "PRECIO" ) ) );
+                         billLine.setId( rs.getInt( "ID_VENTAS_DETALLE" ) );   // Lo necesita updateBill()
+                bill.addLine( billLine );
+            }
+
+            if( bill != null )    // El último
+                processor.process( bill );
+        }
+        finally
+        {
+            if( rs != null )    // El PreparedStatement no se cierra: está en la caché
+            {
+                try{ rs.close(); } catch( SQLException se ) { /* Nothing to do */ }
+            }
+        }
+    }
 }
\ No newline at end of file
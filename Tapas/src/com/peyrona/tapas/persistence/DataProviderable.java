@@ -21,6 +21,7 @@ package com.peyrona.tapas.persistence;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interfaz con las operaciones de persistencia que la aplicación necesita.
@@ -58,5 +59,40 @@ public interface DataProviderable
 
     List<Bill> findBills( Date dFrom, Date dTo, Bill.Payment[] payments, boolean bDelete ) throws Exception;
 
+    /**
+     * Igual que findBills(...), pero en lugar de retornar una lista con todos
+     * los tickets, los va entregando uno a uno al processor según se van
+     * leyendo, por lo que la memoria utilizada no depende del nº de tickets.
+     *
+     * @param dFrom     Desde (puede ser null)
+     * @param dTo       Hasta (puede ser null)
+     * @param payments  Modos de pago (puede ser null)
+     * @param processor Quien recibe los tickets
+     * @throws Exception
+     */
+    void findBills( Date dFrom, Date dTo, Bill.Payment[] payments, BillProcessor processor ) throws Exception;
+
     List<Bill> findBillsByCustomer( String sCustomerPattern ) throws Exception;
+
+    /**
+     * Retorna las ventas (nº de tickets y total) por día, hora y modo de pago
+     * entre las dos fechas (ambas incluidas). Se leen de un resumen que se
+     * mantiene al grabar los tickets, por lo que el tiempo de respuesta no
+     * depende de cuántos tickets haya en la DB.
+     *
+     * @param dFrom Primer día
+     * @param dTo   Último día
+     * @throws Exception
+     */
+    List<SalesSummary> findSalesSummary( Date dFrom, Date dTo ) throws Exception;
+
+    /**
+     * Retorna las unidades vendidas de cada producto entre las dos fechas
+     * (ambas incluidas), ordenadas por el nombre del producto.
+     *
+     * @param dFrom Primer día
+     * @param dTo   Último día
+     * @throws Exception
+     */
+    Map<String,Integer> findProductUnits( Date dFrom, Date dTo ) throws Exception;
 }
\ No newline at end of file
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import com.peyrona.tapas.Utils;
+import java.awt.EventQueue;
+import java.awt.Image;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Carga bajo demanda las imágenes del almacén (ver ImageStore): los iconos de
+ * categorías y productos y la imagen del ticket.
+ * <p>
+ * getCategoriesAndProducts() sólo lee los textos (nombre, descripción,
+ * precio...) y el hash del icono: los iconos se leen de la DB y se decodifican
+ * cuando alguien los pide, en un thread en background, y se guardan en una
+ * caché limitada por la memoria que ocupan los pixels (los que hace más tiempo
+ * que no se usan son los primeros en salir). Así abrir una cuenta o la "Carta"
+ * no tiene que esperar a que se decodifiquen cientos de imágenes.
+ * <p>
+ * Los que salen de la caché pasan a una SoftReference: mientras el GC no
+ * necesite la memoria se pueden volver a utilizar sin leerlos de la DB, y si
+ * la necesita se liberan antes de que falte el heap.
+ * <p>
+ * La clave es el hash de la imagen (más el tamaño si es una miniatura, ver
+ * toKey(...)): como las imágenes son inmutables, lo que hay en la caché nunca
+ * queda obsoleto, y un icono compartido por muchos productos se decodifica una
+ * sola vez.
+ * <p>
+ * Si leerlo falla (p.ej. la DB está ocupada) no se guarda en la caché: durante
+ * unos segundos se retorna null sin volver a intentarlo (para no insistir en
+ * cada repintado) y después se vuelve a leer.
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class IconLoader
+{
+    // Memoria máxima (en MB) de los iconos decodificados que se mantienen en la caché
+    private static final long nCACHE_BYTES = Integer.getInteger( "tapas.icons.cache_mb", 32 ) * 1024L * 1024L;
+
+    // Lo que se cuenta por cada entrada, además de sus pixels (también por las que son null)
+    private static final int  nENTRY_BYTES = 64;
+
+    // Tiempo (en milisegundos) durante el que no se vuelve a leer un icono cuya lectura falló
+    private static final long nRETRY_MILLIS = Integer.getInteger( "tapas.icons.retry_secs", 30 ) * 1000L;
+
+    private final ConnectionPool  pool;
+    private final ExecutorService executor;
+
+    // Todos se protegen con el monitor de this
+    private final Map<String,SharedIcon>     mapCache   = new LinkedHashMap<String,SharedIcon>( 64, .75f, true );  // true == ordenado por acceso (LRU)
+    private final Map<String,SoftIcon>       mapSoft    = new HashMap<String,SoftIcon>();
+    private final ReferenceQueue<SharedIcon> queue      = new ReferenceQueue<SharedIcon>();
+    private final Map<String,List<Runnable>> mapPending = new HashMap<String,List<Runnable>>();
+    private final Map<String,Long>           mapFailed  = new HashMap<String,Long>();    // Cuándo falló su lectura
+    private       long                       nBytes     = 0;    // Ocupados por lo que hay en mapCache
+    private       long                       nHits      = 0;    // Estaba en mapCache
+    private       long                       nSoftHits  = 0;    // Estaba en mapSoft
+    private       long                       nMisses    = 0;    // Hubo que leerlo de la DB
+
+    //------------------------------------------------------------------------//
+
+    IconLoader( ConnectionPool pool )
+    {
+        this.pool     = pool;
+        this.executor = Executors.newSingleThreadExecutor( new ThreadFactory()
+                        {
+                            @Override
+                            public Thread newThread( Runnable r )
+                            {
+                                Thread thread = new Thread( r, "Tapas-Icons" );
+                                       thread.setDaemon( true );
+                                       thread.setPriority( Thread.NORM_PRIORITY - 1 );
+
+                                return thread;
+                            }
+                        } );
+    }
+
+    /**
+     * Clave de la miniatura de una imagen.
+     *
+     * @param sHash Hash de la imagen (ver ImageStore)
+     * @param type Tamaño de la miniatura
+     * @return La clave
+     */
+    static String toKey( String sHash, Product.Thumbnail type )
+    {
+        return sHash +'/'+ type.name();
+    }
+
+    /**
+     * Retorna el icono si ya está en la caché; si no, lo carga en background y
+     * retorna null: cuando esté cargado se invoca (en el EDT) a onLoaded.
+     *
+     * @param sKey Hash de la imagen (ver ImageStore) o toKey(...)
+     * @param onLoaded Puede ser null.
+     * @return El icono o null si aún no se ha cargado.
+     */
+    synchronized SharedIcon get( final String sKey, Runnable onLoaded )
+    {
+        if( isCached( sKey ) )    // Puede estar y ser null (no hay imagen o no es válida)
+            return mapCache.get( sKey );
+
+        if( hasFailed( sKey ) )
+            return null;
+
+        List<Runnable> lstWaiting = mapPending.get( sKey );
+
+        if( lstWaiting == null )    // Nadie lo ha pedido aún
+        {
+            nMisses++;
+            lstWaiting = new ArrayList<Runnable>();
+            mapPending.put( sKey, lstWaiting );
+
+            executor.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    SharedIcon icon  = null;
+                    boolean    bRead = false;
+
+                    try
+                    {
+                        icon  = read( sKey );
+                        bRead = true;
+                    }
+                    catch( Exception exc )    // Un icono que no se puede leer no es motivo para abortar
+                    {
+                        Utils.printError( exc );
+                    }
+
+                    List<Runnable> lstToNotify;
+
+                    synchronized( IconLoader.this )
+                    {
+                        if( bRead ) cache( sKey, icon );
+                        else        mapFailed.put( sKey, System.currentTimeMillis() );
+
+                        lstToNotify = mapPending.remove( sKey );
+                    }
+
+                    for( Runnable r : lstToNotify )
+                        EventQueue.invokeLater( r );
+                }
+            } );
+        }
+
+        if( onLoaded != null )
+            lstWaiting.add( onLoaded );
+
+        return null;
+    }
+
+    /**
+     * Retorna el icono: si no está en la caché lo carga en el thread que
+     * invoca (sin esperar al thread en background).
+     *
+     * @param sKey Hash de la imagen (ver ImageStore) o toKey(...)
+     * @return El icono o null si no tiene.
+     */
+    SharedIcon load( String sKey )
+    {
+        synchronized( this )
+        {
+            if( isCached( sKey ) )
+                return mapCache.get( sKey );
+
+            if( hasFailed( sKey ) )
+                return null;
+
+            nMisses++;
+        }
+
+        try
+        {
+            SharedIcon icon = read( sKey );
+
+            synchronized( this )
+            {
+                cache( sKey, icon );
+            }
+
+            return icon;
+        }
+        catch( Exception exc )    // Un icono que no se puede leer no es motivo para abortar
+        {
+            Utils.printError( exc );
+
+            synchronized( this )
+            {
+                mapFailed.put( sKey, System.currentTimeMillis() );
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Añade a la caché un icono que ya está en memoria (p.ej. el que se acaba
+     * de grabar en la DB), para que no haya que volver a leerlo.
+     *
+     * @param sKey Hash de la imagen (ver ImageStore) o toKey(...)
+     * @param icon El icono.
+     */
+    synchronized void put( String sKey, SharedIcon icon )
+    {
+        cache( sKey, icon );
+    }
+
+    /**
+     * Retorna las estadísticas de la caché (para el log).
+     *
+     * @return Aciertos, fallos y memoria ocupada.
+     */
+    synchronized String getStatistics()
+    {
+        return "Caché de iconos: "+ mapCache.size() +" iconos, "+ (nBytes / 1024) +" de "+ (nCACHE_BYTES / 1024) +" KB; "+
+               mapSoft.size() +" en SoftReference; aciertos="+ nHits +", aciertos en SoftReference="+ nSoftHits +
+               ", fallos="+ nMisses;
+    }
+
+    void close()
+    {
+        executor.shutdownNow();
+    }
+
+    //------------------------------------------------------------------------//
+
+    // Si está en mapSoft, lo vuelve a pasar a mapCache (invocar con el monitor de this)
+    private boolean isCached( String sKey )
+    {
+        if( mapCache.containsKey( sKey ) )
+        {
+            nHits++;
+            return true;
+        }
+
+        SoftIcon   ref  = mapSoft.remove( sKey );
+        SharedIcon icon = ((ref == null) ? null : ref.get());
+
+        if( icon != null )
+        {
+            nSoftHits++;
+            cache( sKey, icon );
+            return true;
+        }
+
+        return false;
+    }
+
+    // Si su lectura falló hace poco: entonces no se vuelve a intentar (invocar con el monitor de this)
+    private boolean hasFailed( String sKey )
+    {
+        Long nWhen = mapFailed.get( sKey );
+
+        if( nWhen == null )
+            return false;
+
+        if( System.currentTimeMillis() - nWhen < nRETRY_MILLIS )
+            return true;
+
+        mapFailed.remove( sKey );    // Ya ha pasado bastante: se vuelve a intentar
+        return false;
+    }
+
+    // Invocar con el monitor de this
+    private void cache( String sKey, SharedIcon icon )
+    {
+        boolean    bExisted = mapCache.containsKey( sKey );
+        SharedIcon old      = mapCache.put( sKey, icon );
+
+        nBytes += getBytes( icon ) - (bExisted ? getBytes( old ) : 0);
+        mapSoft.remove( sKey );
+        mapFailed.remove( sKey );
+
+        // Los que hace más tiempo que no se usan pasan a SoftReference (menos el último, aunque no quepa)
+        Iterator<Map.Entry<String,SharedIcon>> it = mapCache.entrySet().iterator();
+
+        while( nBytes > nCACHE_BYTES && mapCache.size() > 1 )
+        {
+            Map.Entry<String,SharedIcon> eldest = it.next();
+
+            nBytes -= getBytes( eldest.getValue() );
+
+            if( eldest.getValue() != null )    // Los null no ocupan nada: no merece la pena
+                mapSoft.put( eldest.getKey(), new SoftIcon( eldest.getKey(), eldest.getValue(), queue ) );
+
+            it.remove();
+        }
+
+        // Se quitan de mapSoft los que ya ha liberado el GC
+        SoftIcon ref;
+
+        while( (ref = (SoftIcon) queue.poll()) != null )
+        {
+            if( mapSoft.get( ref.sKey ) == ref )
+                mapSoft.remove( ref.sKey );
+        }
+    }
+
+    private static long getBytes( SharedIcon icon )
+    {
+        return nENTRY_BYTES + ((icon == null) ? 0 : 4L * icon.getIconWidth() * icon.getIconHeight());    // ARGB
+    }
+
+    // Retorna null si no tiene imagen o no es válida; lanza una excepción si no se pudo leer
+    private SharedIcon read( String sKey ) throws SQLException, IOException
+    {
+        int               nSlash = sKey.indexOf( '/' );
+        String            sHash  = ((nSlash < 0) ? sKey : sKey.substring( 0, nSlash ));
+        Product.Thumbnail type   = ((nSlash < 0) ? null : Product.Thumbnail.valueOf( sKey.substring( nSlash + 1 ) ));
+        StatementCache    sc     = pool.acquire();
+
+        try
+        {
+            Image image = ImageStore.read( sc, sHash, type );
+
+            return ((image == null) ? null : new SharedIcon( image ));
+        }
+        finally
+        {
+            pool.release( sc );
+        }
+    }
+
+    //------------------------------------------------------------------------//
+    // Inner Class
+    //------------------------------------------------------------------------//
+    // Para saber qué entrada de mapSoft hay que quitar cuando el GC la libere
+    private static final class SoftIcon extends SoftReference<SharedIcon>
+    {
+        private final String sKey;
+
+        private SoftIcon( String sKey, SharedIcon icon, ReferenceQueue<SharedIcon> queue )
+        {
+            super( icon, queue );
+            this.sKey = sKey;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import com.peyrona.tapas.Utils;
+import java.awt.Image;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.swing.ImageIcon;
+
+/**
+ * Almacén de imágenes direccionado por contenido (tabla imagenes).
+ * <p>
+ * Cada imagen distinta se guarda una sola vez, con su hash (ver
+ * Utils.getImageHash(...)) como clave: las categorías, los productos y la
+ * configuración sólo guardan el hash. Así, un mismo icono (p.ej. el de
+ * "cerveza") usado por 20 productos ocupa lo mismo que si lo usase uno solo, y
+ * en memoria se decodifica una sola vez (ver IconLoader).
+ * <p>
+ * Junto a cada imagen se guardan sus miniaturas (ver Product.Thumbnail), que
+ * se crean una sola vez, al guardar la imagen: así mostrar la Carta no tiene
+ * que reducir ninguna imagen. Las imágenes guardadas antes de que existiesen
+ * las miniaturas las obtienen la primera vez que se piden (ver read(...)).
+ * <p>
+ * Las imágenes son inmutables: una imagen distinta tiene un hash distinto. Las
+ * que ya no usa nadie se borran con purge().
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class ImageStore
+{
+    // Tablas que apuntan a imagenes: { tabla, columna id, columna BLOB anterior, columna hash }
+    private static final String[][] asREFERENCES = { { "categorias"   , "id_categoria"    , "icono"        , "icono_hash"         },
+                                                     { "productos"    , "id_producto"     , "icono"        , "icono_hash"         },
+                                                     { "configuracion", "id_configuracion", "ticket_imagen", "ticket_imagen_hash" } };
+
+    //------------------------------------------------------------------------//
+
+    /**
+     * Guarda la imagen (y sus miniaturas) si aún no está en el almacén: si ya
+     * está, ni siquiera se codifica.
+     *
+     * @param sc StatementCache de la Connection (y transacción) a utilizar.
+     * @param sHash Utils.getImageHash( image )
+     * @param image La imagen.
+     */
+    static void put( StatementCache sc, String sHash, Image image ) throws SQLException, IOException
+    {
+        PreparedStatement ps = sc.get( "SELECT 1 FROM APP.imagenes WHERE hash = ?" );
+                          ps.setString( 1, sHash );
+        ResultSet         rs = ps.executeQuery();
+        boolean           bExist = rs.next();
+
+        rs.close();
+
+        if( ! bExist )
+        {
+            ps = sc.get( "INSERT INTO APP.imagenes (hash, imagen, "+ getColumn( Product.Thumbnail.Button ) +", "+
+                                                                 getColumn( Product.Thumbnail.Table  ) +") VALUES (?,?,?,?)" );
+            ps.setString( 1, sHash );
+            Utils.writeImageToBlob( 2, ps, image );
+            Utils.writeImageToBlob( 3, ps, createThumbnail( image, Product.Thumbnail.Button ) );
+            Utils.writeImageToBlob( 4, ps, createThumbnail( image, Product.Thumbnail.Table  ) );
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Lee una imagen o una de sus miniaturas. Si la imagen es anterior a las
+     * miniaturas y ésta aún no existe, se crea a partir de la imagen y se
+     * guarda para las siguientes veces.
+     *
+     * @param sc StatementCache de la Connection a utilizar.
+     * @param sHash Hash de la imagen.
+     * @param type Miniatura a leer o null para leer la imagen original.
+     * @return La imagen o null si no existe.
+     */
+    static Image read( StatementCache sc, String sHash, Product.Thumbnail type ) throws SQLException, IOException
+    {
+        String            sColumn = ((type == null) ? "imagen" : getColumn( type ));
+        PreparedStatement ps      = sc.get( "SELECT "+ sColumn +" FROM APP.imagenes WHERE hash = ?" );
+                          ps.setString( 1, sHash );
+        ResultSet         rs      = ps.executeQuery();
+        Image             image   = null;
+        boolean           bExist  = rs.next();
+
+        if( bExist )
+            image = Utils.readImageFromBlob( rs, sColumn );
+
+        rs.close();
+
+        if( bExist && image == null && type != null )
+        {
+            image = read( sc, sHash, null );
+
+            if( image != null )
+            {
+                image = createThumbnail( image, type );
+
+                ps = sc.get( "UPDATE APP.imagenes SET "+ sColumn +" = ? WHERE hash = ?" );
+                Utils.writeImageToBlob( 1, ps, image );
+                ps.setString( 2, sHash );
+                ps.executeUpdate();
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Borra las imágenes que ya no utiliza ninguna categoría, producto o
+     * configuración.
+     *
+     * @param sc StatementCache de la Connection (y transacción) a utilizar.
+     */
+    static void purge( StatementCache sc ) throws SQLException
+    {
+        StringBuilder sb = new StringBuilder( "DELETE FROM APP.imagenes WHERE " );
+
+        for( int n = 0; n < asREFERENCES.length; n++ )
+        {
+            String sTable = asREFERENCES[n][0];
+            String sHash  = asREFERENCES[n][3];
+
+            if( n > 0 )
+                sb.append( " AND " );
+
+            sb.append( "hash NOT IN (SELECT " ).append( sHash ).append( " FROM APP." ).append( sTable )
+              .append( " WHERE " ).append( sHash ).append( " IS NOT NULL)" );
+        }
+
+        sc.get( sb.toString() ).executeUpdate();
+    }
+
+    /**
+     * Pasa las imágenes que estaban como BLOB en categorias, productos y
+     * configuracion a la tabla imagenes (que ya debe existir), y elimina las
+     * columnas BLOB.
+     * <p>
+     * Hay que hacerlo desde Java porque el hash se calcula a partir de los
+     * pixels: los bytes originales (PNG) se guardan tal cual, sin volver a
+     * codificarlos. Se ejecuta dentro de la transacción del upgrade.
+     *
+     * @param dbConn Connection con autocommit desactivado.
+     */
+    static void migrate( Connection dbConn ) throws SQLException
+    {
+        PreparedStatement psExist  = dbConn.prepareStatement( "SELECT 1 FROM APP.imagenes WHERE hash = ?" );
+        PreparedStatement psInsert = dbConn.prepareStatement( "INSERT INTO APP.imagenes (hash, imagen) VALUES (?,?)" );
+        Statement         stmt     = dbConn.createStatement();
+
+        try
+        {
+            for( String[] asRef : asREFERENCES )
+            {
+                String            sTable = "APP."+ asRef[0];
+                PreparedStatement psHash = dbConn.prepareStatement( "UPDATE "+ sTable +" SET "+ asRef[3] +" = ?"+
+                                                                    " WHERE "+ asRef[1] +" = ?" );
+                ResultSet         rs     = stmt.executeQuery( "SELECT "+ asRef[1] +", "+ asRef[2] +" FROM "+ sTable );
+
+                while( rs.next() )
+                {
+                    byte[] abImage = Utils.readFromBlob( rs, asRef[2] );
+                    String sHash   = null;
+
+                    if( abImage != null && abImage.length > 0 )
+                        sHash = Utils.getImageHash( new ImageIcon( abImage ).getImage() );   // null si no es válida
+
+                    if( sHash != null )
+                    {
+                        psExist.setString( 1, sHash );
+
+                        ResultSet rsExist = psExist.executeQuery();
+                        boolean   bExist  = rsExist.next();
+
+                        rsExist.close();
+
+                        if( ! bExist )
+                        {
+                            psInsert.setString( 1, sHash );
+                            Utils.writeToBlob( 2, psInsert, abImage );
+                            psInsert.executeUpdate();
+                        }
+                    }
+
+                    psHash.setString( 1, sHash );
+                    psHash.setInt(    2, rs.getInt( 1 ) );
+                    psHash.executeUpdate();
+                }
+
+                rs.close();
+                psHash.close();
+
+                stmt.executeUpdate( "ALTER TABLE "+ sTable +" DROP COLUMN "+ asRef[2] );
+                stmt.executeUpdate( "ALTER TABLE "+ sTable +" ADD CONSTRAINT fk_"+ asRef[0] +"_imagenes"+
+                                    " FOREIGN KEY ("+ asRef[3] +") REFERENCES APP.imagenes (hash)" );
+            }
+        }
+        finally
+        {
+            stmt.close();
+            psInsert.close();
+            psExist.close();
+        }
+    }
+
+    //------------------------------------------------------------------------//
+
+    private static String getColumn( Product.Thumbnail type )
+    {
+        return ((type == Product.Thumbnail.Button) ? "miniatura_boton" : "miniatura_tabla");
+    }
+
+    private static Image createThumbnail( Image image, Product.Thumbnail type )
+    {
+        return Utils.getThumbnail( image, type.getWidth(), type.getHeight() );
+    }
+
+    private ImageStore()
+    {
+        // Sólo métodos estáticos
+    }
+}
\ No newline at end of file
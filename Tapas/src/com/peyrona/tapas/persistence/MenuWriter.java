@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Graba la Carta (categorías y productos) en la DB.
+ * <p>
+ * No se borra todo para volver a insertarlo: cada Product sabe si ha cambiado
+ * desde que se leyó (ver Product.isDirty()), por lo que sólo se insertan los
+ * nuevos (id < 0), se actualizan los modificados (o los que han cambiado de
+ * posición) y se borran los que ya no están. Los iconos sólo se codifican
+ * (PNG) y se graban cuando han cambiado y aún no estaban en el almacén de
+ * imágenes (ver ImageStore): modificar un precio en una Carta de cientos de
+ * productos es un único UPDATE.
+ * <p>
+ * Todo se graba en una única transacción. Utiliza la Connection de un
+ * StatementCache del pool: no debe compartirse entre threads.
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class MenuWriter
+{
+    private final StatementCache    sc;
+    private final IconLoader        iconLoader;
+    private final List<Product>     lstInserted      = new ArrayList<Product>();    // Por si hay que deshacer
+    private       PreparedStatement psInsertCategory = null;                       // Sólo se preparan si hacen falta
+    private       PreparedStatement psInsertProduct  = null;
+    private       boolean           bPurge           = false;    // Puede haber imágenes que ya no use nadie
+
+    //------------------------------------------------------------------------//
+
+    MenuWriter( StatementCache sc, IconLoader iconLoader )
+    {
+        this.sc         = sc;
+        this.iconLoader = iconLoader;
+    }
+
+    void write( List<Product> categories ) throws SQLException, IOException
+    {
+        Connection dbConn      = sc.getConnection();
+        boolean    bAutoCommit = dbConn.getAutoCommit();
+        boolean    bCommitted  = false;
+
+        dbConn.setAutoCommit( false );
+
+        try
+        {
+            Set<Integer> setCategories = readIds( "SELECT id_categoria FROM APP.categorias" );
+            Set<Integer> setProducts   = readIds( "SELECT id_producto FROM APP.productos" );
+
+            for( int n = 0; n < categories.size(); n++ )
+            {
+                Product       category = categories.get( n );
+                List<Product> products = category.getSubMenu();
+
+                save( category, true, -1, n );
+                setCategories.remove( category.getId() );
+
+                for( int m = 0; m < products.size(); m++ )
+                {
+                    save( products.get( m ), false, category.getId(), m );
+                    setProducts.remove( products.get( m ).getId() );
+                }
+            }
+
+            // Lo que queda en la DB ya no está en la Carta
+            delete( "DELETE FROM APP.productos  WHERE id_producto  = ?", setProducts   );
+            delete( "DELETE FROM APP.categorias WHERE id_categoria = ?", setCategories );
+
+            if( bPurge )
+                ImageStore.purge( sc );
+
+            dbConn.commit();
+            bCommitted = true;
+        }
+        finally
+        {
+            if( ! bCommitted )
+            {
+                try{ dbConn.rollback(); } catch( SQLException se ) { /* Nada que hacer */ }
+
+                for( Product product : lstInserted )    // Sus ids no han llegado a la DB
+                    product.setId( -1 );
+            }
+
+            dbConn.setAutoCommit( bAutoCommit );
+
+            if( psInsertCategory != null )
+                psInsertCategory.close();
+
+            if( psInsertProduct != null )
+                psInsertProduct.close();
+        }
+
+        // Ahora lo que hay en memoria es lo mismo que hay en la DB
+        for( int n = 0; n < categories.size(); n++ )
+        {
+            Product       category = categories.get( n );
+            List<Product> products = category.getSubMenu();
+
+            setClean( category, n, -1 );
+
+            for( int m = 0; m < products.size(); m++ )
+                setClean( products.get( m ), m, category.getId() );
+        }
+    }
+
+    //------------------------------------------------------------------------//
+
+    // Los iconos ya grabados se liberan de Product: a partir de ahora se cargan
+    // a través de iconLoader (ver Product.setIconLoader(...))
+    private void setClean( Product product, int nOrder, int nParent )
+    {
+        product.setClean( nOrder, nParent, product.getIconHash() );
+
+        if( product.getIconHash() != null )
+            product.setIconLoader( iconLoader );
+    }
+
+    private void save( Product product, boolean bCategory, int nParent, int nOrder ) throws SQLException, IOException
+    {
+        if( product.getId() < 0 )
+        {
+            insert( product, bCategory, nParent, nOrder );
+        }
+        else if( product.isDirty() || product.isIconDirty() ||
+                 product.getOrder() != nOrder || (! bCategory && product.getParent() != nParent) )
+        {
+            update( product, bCategory, nParent, nOrder );
+        }
+    }
+
+    private void insert( Product product, boolean bCategory, int nParent, int nOrder ) throws SQLException, IOException
+    {
+        PreparedStatement ps;
+        int               nCol = 1;
+
+        if( bCategory )
+        {
+            if( psInsertCategory == null )
+                psInsertCategory = sc.getConnection().prepareStatement(
+                        "INSERT INTO APP.categorias (nombre, orden, icono_hash) VALUES (?,?,?)",
+                        Statement.RETURN_GENERATED_KEYS );
+
+            ps = psInsertCategory;
+            ps.clearParameters();
+        }
+        else
+        {
+            if( psInsertProduct == null )
+                psInsertProduct = sc.getConnection().prepareStatement(
+                        "INSERT INTO APP.productos (id_categoria, descripcion, precio, nombre, orden, icono_hash)"+
+                        " VALUES (?,?,?,?,?,?)",
+                        Statement.RETURN_GENERATED_KEYS );
+
+            ps = psInsertProduct;
+            ps.clearParameters();
+            ps.setInt(        nCol++, nParent );
+            ps.setString(     nCol++, product.getDescription() );
+            ps.setBigDecimal( nCol++, product.getPrice() );
+        }
+
+        ps.setString( nCol++, product.getCaption() );
+        ps.setInt(    nCol++, nOrder );
+        ps.setString( nCol++, putIcon( product ) );
+        ps.executeUpdate();
+
+        ResultSet rs = ps.getGeneratedKeys();
+
+        if( rs.next() )    // Sólo hay un record en el ResultSet y éste contiene el ID recién insertado
+        {
+            product.setId( rs.getInt( 1 ) );
+            lstInserted.add( product );
+        }
+
+        rs.close();
+    }
+
+    private void update( Product product, boolean bCategory, int nParent, int nOrder ) throws SQLException, IOException
+    {
+        boolean           bIcon = product.isIconDirty();
+        PreparedStatement ps;
+        int               nCol  = 1;
+
+        if( bCategory )
+        {
+            ps = sc.get( "UPDATE APP.categorias SET nombre = ?, orden = ?"+
+                         (bIcon ? ", icono_hash = ?" : "")+
+                         " WHERE id_categoria = ?" );
+        }
+        else
+        {
+            ps = sc.get( "UPDATE APP.productos SET id_categoria = ?, descripcion = ?, precio = ?, nombre = ?, orden = ?"+
+                         (bIcon ? ", icono_hash = ?" : "")+
+                         " WHERE id_producto = ?" );
+
+            ps.setInt(        nCol++, nParent );
+            ps.setString(     nCol++, product.getDescription() );
+            ps.setBigDecimal( nCol++, product.getPrice() );
+        }
+
+        ps.setString( nCol++, product.getCaption() );
+        ps.setInt(    nCol++, nOrder );
+
+        if( bIcon )
+        {
+            ps.setString( nCol++, putIcon( product ) );
+            bPurge = true;
+        }
+
+        ps.setInt( nCol, product.getId() );
+        ps.executeUpdate();
+    }
+
+    private void delete( String sDelete, Set<Integer> setIds ) throws SQLException
+    {
+        if( setIds.isEmpty() )
+            return;
+
+        PreparedStatement ps = sc.get( sDelete );
+
+        for( Integer nId : setIds )
+        {
+            ps.setInt( 1, nId );
+            ps.addBatch();
+        }
+
+        bPurge = true;
+
+        ps.executeBatch();
+    }
+
+    /**
+     * Se asegura de que el icono del producto está en el almacén de imágenes.
+     *
+     * @return El hash del icono (null si no tiene).
+     */
+    private String putIcon( Product product ) throws SQLException, IOException
+    {
+        String sHash = product.getIconHash();
+
+        if( sHash != null )
+            ImageStore.put( sc, sHash, product.getImage() );
+
+        return sHash;
+    }
+
+    private Set<Integer> readIds( String sQuery ) throws SQLException
+    {
+        Set<Integer> set = new HashSet<Integer>();
+        ResultSet    rs  = sc.get( sQuery ).executeQuery();
+
+        while( rs.next() )
+            set.add( rs.getInt( 1 ) );
+
+        rs.close();
+
+        return set;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import com.peyrona.tapas.Utils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Instantánea (snapshot) de las cuentas abiertas, para no perderlas si la
+ * aplicación muere o se va la luz en mitad del servicio.
+ * <p>
+ * Las cuentas se guardan en un fichero proyectado en memoria (memory-mapped)
+ * formado por "huecos" (slots) de tamaño fijo. Cada cuenta abierta tiene dos
+ * huecos y se escribe alternativamente en uno y en otro, junto con un nº de
+ * versión y un CRC32: si una escritura se queda a medias siempre queda la
+ * versión anterior en el otro hueco.
+ * <p>
+ * Cuando una cuenta cambia sólo se marca como "sucia": periódicamente, un
+ * thread en background escribe las cuentas sucias (y sólo ésas) y vuelca el
+ * fichero a disco. Al arrancar, restore() retorna las cuentas que estaban
+ * abiertas.
+ * <p>
+ * Una cuenta que no cabe en un hueco se escribe en un fichero aparte (uno por
+ * cada hueco, así se mantiene la alternancia) y en el hueco sólo queda una
+ * marca con la versión: el fichero sólo vale si su versión y su CRC32
+ * coinciden con los de la marca.
+ *
+ * @author Francisco Morero Peyrona
+ */
+public final class OpenBillsSnapshot
+{
+    private static final int nSLOT_SIZE    = 8 * 1024;    // Más de 300 líneas por cuenta
+    private static final int nHEADER_SIZE  = 16;          // longitud + CRC32 + versión
+    private static final int nINITIAL_TABS = 32;          // El fichero crece si hacen falta más
+    private static final int nOVERFLOW     = -1;          // Longitud de la marca: la cuenta está en su fichero
+    private static final byte[] NO_DATA    = new byte[0];
+
+    // Milisegundos entre dos instantáneas consecutivas
+    private static final int nPERIOD = Integer.getInteger( "tapas.snapshot.period", 2000 );
+
+    private static volatile OpenBillsSnapshot instance = null;    // Para el Singleton
+
+    // Todo lo que sigue se protege con el monitor de this
+    private final File             file;
+    private final FileChannel      channel;
+    private       MappedByteBuffer buffer;
+    private final BitSet           usedPairs = new BitSet();
+    private final Map<Bill,Tab>    mapTabs   = new IdentityHashMap<Bill,Tab>();
+    private final Map<Bill,byte[]> mapDirty  = new IdentityHashMap<Bill,byte[]>();
+    private final List<Bill>       lstFound  = new ArrayList<Bill>();
+
+    //------------------------------------------------------------------------//
+
+    public static OpenBillsSnapshot getInstance()
+    {
+        if( instance == null )
+        {
+            synchronized( OpenBillsSnapshot.class )
+            {
+                if( instance == null )
+                {
+                    try
+                    {
+                        instance = new OpenBillsSnapshot( new File( System.getProperty( "user.dir", "." ) +"/db/open_bills.snapshot" ) );
+                    }
+                    catch( IOException ioe )
+                    {
+                        Utils.printError( ioe, Level.SEVERE, "No se puede crear la instantánea de las cuentas abiertas", Utils.nEXIT_DB_ERROR );
+                    }
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    //------------------------------------------------------------------------//
+
+    /**
+     * Retorna las cuentas que estaban abiertas la última vez que se ejecutó la
+     * aplicación. Las cuentas retornadas siguen formando parte de la instantánea
+     * (no hay que volver a añadirlas con put(...)).
+     *
+     * @return Las cuentas que estaban abiertas.
+     */
+    public synchronized List<Bill> restore()
+    {
+        List<Bill> lst = new ArrayList<Bill>( lstFound );
+
+        lstFound.clear();
+
+        return lst;
+    }
+
+    /**
+     * Informa de que la cuenta ha sido abierta o modificada: la próxima
+     * instantánea la incluirá.
+     * <p>
+     * La cuenta se serializa ahora (desde el thread que la modifica), por lo que
+     * el thread que escribe la instantánea nunca accede al objeto Bill.
+     *
+     * @param bill Cuenta abierta.
+     */
+    public void put( Bill bill )
+    {
+        byte[] data;
+
+        try
+        {
+            data = encode( bill );
+        }
+        catch( IOException ioe )    // Con un ByteArrayOutputStream no puede ocurrir
+        {
+            Utils.printError( ioe );
+            return;
+        }
+        catch( RuntimeException re )    // Una cuenta mal formada no debe llegar al EDT: la anterior sigue en la instantánea
+        {
+            Utils.printError( re );
+            return;
+        }
+
+        synchronized( this )
+        {
+            mapDirty.put( bill, data );
+        }
+    }
+
+    /**
+     * Informa de que la cuenta se ha cerrado (ya está grabada) y debe
+     * desaparecer de la instantánea. Se hace de inmediato (no espera a la
+     * siguiente instantánea) para que una cuenta cerrada nunca se restaure.
+     *
+     * @param bill Cuenta cerrada.
+     */
+    public synchronized void remove( Bill bill )
+    {
+        mapDirty.remove( bill );
+
+        Tab tab = mapTabs.remove( bill );
+
+        if( tab != null )
+        {
+            buffer.putInt( slotOffset( tab.nPair, 0 ), 0 );
+            buffer.putInt( slotOffset( tab.nPair, 1 ), 0 );
+            usedPairs.clear( tab.nPair );
+            buffer.force();
+
+            // Sin marca que los apunte ya no valen, pero así no se acumulan
+            overflowFile( tab.nPair, 0 ).delete();
+            overflowFile( tab.nPair, 1 ).delete();
+        }
+    }
+
+    //------------------------------------------------------------------------//
+
+    private OpenBillsSnapshot( File file ) throws IOException
+    {
+        this.file    = file;
+        this.channel = new RandomAccessFile( file, "rw" ).getChannel();
+
+        map( Math.max( channel.size(), (long) nINITIAL_TABS * 2 * nSLOT_SIZE ) );
+        load();
+
+        Thread thread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while( true )
+                {
+                    try{ Thread.sleep( nPERIOD ); } catch( InterruptedException ie ) { return; }
+
+                    flush();
+                }
+            }
+        }, "Tapas-Snapshot" );
+
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    // Lee todas las cuentas guardadas: de cada pareja de huecos, la versión válida más reciente
+    private void load()
+    {
+        int nPairs = buffer.capacity() / (2 * nSLOT_SIZE);
+
+        for( int nPair = 0; nPair < nPairs; nPair++ )
+        {
+            Tab  tab  = null;
+            Bill bill = null;
+
+            for( int nSlot = 0; nSlot < 2; nSlot++ )
+            {
+                byte[] data = readSlot( nPair, nSlot );
+
+                if( data == null )
+                    continue;
+
+                long nVersion = buffer.getLong( slotOffset( nPair, nSlot ) + 8 );
+
+                if( tab == null || nVersion > tab.nVersion )
+                {
+                    try
+                    {
+                        bill = Bill.read( new DataInputStream( new ByteArrayInputStream( data ) ) );
+                        tab  = new Tab( nPair, nVersion, nSlot );
+                    }
+                    catch( IOException ioe )
+                    {
+                        Utils.printError( ioe );
+                    }
+                }
+            }
+
+            if( tab != null )
+            {
+                usedPairs.set( nPair );
+                mapTabs.put( bill, tab );
+                lstFound.add( bill );
+            }
+        }
+
+        // Se restauran en el mismo orden en que se abrieron
+        Collections.sort( lstFound, new Comparator<Bill>()
+        {
+            @Override
+            public int compare( Bill b1, Bill b2 )
+            {
+                return (b1.getWhenWasOpen() < b2.getWhenWasOpen() ? -1 :
+                        (b1.getWhenWasOpen() > b2.getWhenWasOpen() ? 1 : 0));
+            }
+        } );
+    }
+
+    // Retorna los datos del hueco (o de su fichero) o null si está vacío o no es válido
+    private byte[] readSlot( int nPair, int nSlot )
+    {
+        int  nOffset  = slotOffset( nPair, nSlot );
+        int  nLength  = buffer.getInt( nOffset );
+        long nVersion = buffer.getLong( nOffset + 8 );
+
+        if( nLength == nOVERFLOW )
+        {
+            return (crc( nVersion, NO_DATA ) == buffer.getInt( nOffset + 4 ) ? readOverflow( nPair, nSlot, nVersion ) : null);
+        }
+
+        if( nLength <= 0 || nLength > nSLOT_SIZE - nHEADER_SIZE )
+            return null;
+
+        byte[] data = new byte[ nLength ];
+
+        buffer.position( nOffset + nHEADER_SIZE );
+        buffer.get( data );
+
+        return (crc( nVersion, data ) == buffer.getInt( nOffset + 4 ) ? data : null);
+    }
+
+    // Mismo formato que un hueco: longitud + CRC32 + versión + datos
+    private byte[] readOverflow( int nPair, int nSlot, long nVersion )
+    {
+        File fOverflow = overflowFile( nPair, nSlot );
+
+        if( ! fOverflow.isFile() )
+            return null;
+
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile( fOverflow, "r" );
+
+            try
+            {
+                int nLength = raf.readInt();
+                int nCRC    = raf.readInt();
+
+                if( raf.readLong() != nVersion || nLength <= 0 || nLength > raf.length() - nHEADER_SIZE )
+                    return null;
+
+                byte[] data = new byte[ nLength ];
+
+                raf.readFully( data );
+
+                return (crc( nVersion, data ) == nCRC ? data : null);
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch( IOException ioe )
+        {
+            Utils.printError( ioe );
+            return null;
+        }
+    }
+
+    private void writeOverflow( int nPair, int nSlot, long nVersion, byte[] data ) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( overflowFile( nPair, nSlot ), "rw" );
+
+        try
+        {
+            raf.setLength( 0 );
+            raf.writeInt( data.length );
+            raf.writeInt( crc( nVersion, data ) );
+            raf.writeLong( nVersion );
+            raf.write( data );
+            raf.getChannel().force( false );    // Tiene que estar en disco antes que la marca que lo apunta
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    private File overflowFile( int nPair, int nSlot )
+    {
+        return new File( file.getPath() +"."+ nPair +"."+ nSlot );
+    }
+
+    // Escribe las cuentas que han cambiado desde la última instantánea
+    private synchronized void flush()
+    {
+        try
+        {
+            for( Map.Entry<Bill,byte[]> entry : mapDirty.entrySet() )
+            {
+                write( entry.getKey(), entry.getValue() );
+            }
+
+            if( ! mapDirty.isEmpty() )
+                buffer.force();
+
+            mapDirty.clear();
+        }
+        catch( IOException ioe )
+        {
+            Utils.printError( ioe );
+        }
+    }
+
+    private void write( Bill bill, byte[] data ) throws IOException
+    {
+        Tab tab = mapTabs.get( bill );
+
+        if( tab == null )
+        {
+            tab = new Tab( findFreePair(), 0, 1 );
+            usedPairs.set( tab.nPair );
+            mapTabs.put( bill, tab );
+        }
+
+        // Se escribe en el hueco que no tiene la última versión válida
+        int     nSlot    = 1 - tab.nSlot;
+        int     nOffset  = slotOffset( tab.nPair, nSlot );
+        long    nVersion = tab.nVersion + 1;
+        boolean bFits    = (nHEADER_SIZE + data.length <= nSLOT_SIZE);
+
+        buffer.putInt( nOffset, 0 );    // Mientras se escribe, el hueco no es válido
+
+        if( bFits )
+        {
+            buffer.position( nOffset + nHEADER_SIZE );
+            buffer.put( data );
+        }
+        else    // No cabe: va a su fichero y en el hueco sólo queda la marca
+        {
+            writeOverflow( tab.nPair, nSlot, nVersion, data );
+        }
+
+        buffer.putLong( nOffset + 8, nVersion );
+        buffer.putInt( nOffset + 4, crc( nVersion, (bFits ? data : NO_DATA) ) );
+        buffer.putInt( nOffset, (bFits ? data.length : nOVERFLOW) );
+
+        tab.nSlot    = nSlot;
+        tab.nVersion = nVersion;
+    }
+
+    private int findFreePair() throws IOException
+    {
+        int nPair = usedPairs.nextClearBit( 0 );
+
+        if( slotOffset( nPair, 1 ) + nSLOT_SIZE > buffer.capacity() )    // No cabe: se duplica el tamaño del fichero
+        {
+            buffer.force();
+            map( (long) buffer.capacity() * 2 );
+        }
+
+        return nPair;
+    }
+
+    private void map( long nSize ) throws IOException
+    {
+        buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, nSize );
+    }
+
+    private static int slotOffset( int nPair, int nSlot )
+    {
+        return ((nPair * 2) + nSlot) * nSLOT_SIZE;
+    }
+
+    private static int crc( long nVersion, byte[] data )
+    {
+        CRC32 crc = new CRC32();
+
+        for( int n = 56; n >= 0; n -= 8 )
+            crc.update( (int) (nVersion >>> n) );
+
+        crc.update( data );
+
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode( Bill bill ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( 256 );
+        DataOutputStream      dos  = new DataOutputStream( baos );
+
+        bill.write( dos );
+        dos.flush();
+
+        return baos.toByteArray();
+    }
+
+    //------------------------------------------------------------------------//
+    // INNER CLASS: Dónde está guardada cada cuenta abierta
+    //------------------------------------------------------------------------//
+    private static final class Tab
+    {
+        private final int  nPair;       // Pareja de huecos que ocupa
+        private       long nVersion;    // Última versión escrita
+        private       int  nSlot;       // Hueco (0 ó 1) que tiene la última versión
+
+        Tab( int nPair, long nVersion, int nSlot )
+        {
+            this.nPair    = nPair;
+            this.nVersion = nVersion;
+            this.nSlot    = nSlot;
+        }
+    }
+}
\ No newline at end of file
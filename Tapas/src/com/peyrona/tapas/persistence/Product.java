@@ -18,10 +18,13 @@
 
 package com.peyrona.tapas.persistence;
 
+import com.peyrona.tapas.Utils;
 import java.awt.Image;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import javax.swing.ImageIcon;
 
 /**
@@ -41,13 +44,49 @@ import javax.swing.ImageIcon;
  */
 public final class Product
 {
+    /**
+     * Miniaturas que se guardan junto a cada imagen (ver ImageStore), para no
+     * tener que reducir las imágenes cada vez que se muestran.
+     */
+    public enum Thumbnail
+    {
+        Button( 90, 90 ),    // Botones de la Carta: MenuGrid.CELL_SIZE (110x120) menos márgenes y etiqueta
+        Table(  60, 60 );    // Filas de 64 pixels de las tablas de Office (menos el borde)
+
+        private final int nWidth;
+        private final int nHeight;
+
+        private Thumbnail( int nWidth, int nHeight )
+        {
+            this.nWidth  = nWidth;
+            this.nHeight = nHeight;
+        }
+
+        public int getWidth()  { return nWidth;  }
+        public int getHeight() { return nHeight; }
+    }
+
     private int           nId;
     private String        sCaption;
     private String        sDescription;
     private BigDecimal    nPrice;
-    private ImageIcon     icon;
+    private SharedIcon    icon;
     private List<Product> lstSubMenu;
 
+    // Si no es null, el icono está en la DB y se carga bajo demanda (ver IconLoader)
+    private IconLoader    iconLoader;
+    private String        sIconHash;      // Ver Utils.getImageHash(...) e ImageStore
+    private String[]      asThumbKeys;    // Claves de las miniaturas en iconLoader (por Thumbnail.ordinal())
+
+    // Miniaturas del icono cuando éste sólo está en memoria (aún no se ha guardado)
+    private Map<Thumbnail,SharedIcon> mapThumbnails;
+
+    // Para guardar sólo lo que ha cambiado desde que se leyó de (o grabó en) la DB
+    private boolean       bDirty;         // Ha cambiado el nombre, la descripción o el precio
+    private boolean       bIconDirty;     // Ha cambiado el icono
+    private int           nOrder  = -1;   // Posición en la DB (dentro de su categoría)
+    private int           nParent = -1;   // Categoría en la DB (sólo para productos)
+
     //------------------------------------------------------------------------//
     // PUBLIC INTERFACE
 
@@ -73,6 +112,7 @@ public final class Product
      */
     public void setCaption( String sCaption )
     {
+        bDirty = bDirty || ! isEqual( this.sCaption, sCaption );
         this.sCaption = sCaption;
     }
 
@@ -89,33 +129,85 @@ public final class Product
      */
     public void setDescription( String sDescription )
     {
+        bDirty = bDirty || ! isEqual( this.sDescription, sDescription );
         this.sDescription = sDescription;
     }
 
     /**
+     * Retorna el icono; si aún no se ha leído de la DB, lo lee (y decodifica)
+     * antes de retornar. Desde el EDT es preferible getIcon( Runnable ).
+     * <p>
+     * El icono es inmutable y se comparte (no se crea uno nuevo en cada
+     * llamada): para cambiarlo hay que utilizar setIcon(...).
+     *
      * @return the icon
      */
-    public ImageIcon getIcon()
+    public SharedIcon getIcon()
+    {
+        return ((iconLoader == null) ? icon : iconLoader.load( sIconHash ));
+    }
+
+    /**
+     * Retorna el icono si ya está disponible. Si no lo está, se lee de la DB en
+     * background, se retorna null y, cuando esté disponible, se invoca (en el
+     * EDT) a onLoaded, que puede entonces volver a pedir el icono.
+     *
+     * @param onLoaded Qué hacer cuando el icono esté disponible (puede ser null).
+     * @return El icono o null si no tiene o si aún no está disponible.
+     */
+    public SharedIcon getIcon( Runnable onLoaded )
     {
-        if( this.icon == null )
+        return ((iconLoader == null) ? icon : iconLoader.get( sIconHash, onLoaded ));
+    }
+
+    /**
+     * Retorna la miniatura del icono. Como getIcon( Runnable ), si aún no está
+     * disponible se lee de la DB en background y se retorna null.
+     *
+     * @param type Tamaño de la miniatura.
+     * @param onLoaded Qué hacer cuando esté disponible (puede ser null).
+     * @return La miniatura o null si no tiene icono o si aún no está disponible.
+     */
+    public SharedIcon getThumbnail( Thumbnail type, Runnable onLoaded )
+    {
+        if( iconLoader != null )
+        {
+            return iconLoader.get( asThumbKeys[ type.ordinal() ], onLoaded );
+        }
+
+        if( icon == null )
         {
             return null;
         }
-        else
+
+        // El icono aún no está en la DB: se reduce aquí (una sola vez)
+        if( mapThumbnails == null )
+        {
+            mapThumbnails = new EnumMap<Thumbnail,SharedIcon>( Thumbnail.class );
+        }
+
+        SharedIcon thumbnail = mapThumbnails.get( type );
+
+        if( thumbnail == null )
         {
-            return new ImageIcon( icon.getImage() );    // Casi "copia defensiva"
+            thumbnail = new SharedIcon( Utils.getThumbnail( icon.getImage(), type.getWidth(), type.getHeight() ) );
+            mapThumbnails.put( type, thumbnail );
         }
+
+        return thumbnail;
     }
 
     public Image getImage()
     {
-        if( this.icon == null )
+        SharedIcon ii = getIcon();
+
+        if( ii == null )
         {
             return null;
         }
         else
         {
-            return icon.getImage();
+            return ii.getImage();
         }
     }
 
@@ -134,7 +226,17 @@ public final class Product
 
     public void setIcon( Image image )
     {
-        this.icon = ((image == null) ? null : new ImageIcon( image ));
+        String sHash = Utils.getImageHash( image );
+
+        // Si es la misma imagen que ya tenía (p.ej. se ha vuelto a elegir el mismo
+        // fichero), no hay que volver a guardarla
+        bIconDirty = bIconDirty || ! isEqual( sHash, sIconHash );
+
+        this.sIconHash     = sHash;
+        this.icon          = ((image == null) ? null : new SharedIcon( image ));
+        this.iconLoader    = null;    // A partir de ahora manda el que se acaba de asignar
+        this.asThumbKeys   = null;
+        this.mapThumbnails = null;
     }
 
     /**
@@ -147,6 +249,8 @@ public final class Product
 
     public void setPrice( BigDecimal price )
     {
+        // compareTo() y no equals(): 1.5 y 1.50 son el mismo precio
+        bDirty = bDirty || (nPrice == null ? price != null : (price == null || nPrice.compareTo( price ) != 0));
         nPrice = price;
     }
 
@@ -235,4 +339,89 @@ public final class Product
     {
         this.nId = nId;
     }
+
+    /**
+     * Si ha cambiado el nombre, la descripción o el precio.
+     */
+    boolean isDirty()
+    {
+        return bDirty;
+    }
+
+    /**
+     * Si ha cambiado el icono.
+     */
+    boolean isIconDirty()
+    {
+        return bIconDirty;
+    }
+
+    String getIconHash()
+    {
+        return sIconHash;
+    }
+
+    int getOrder()
+    {
+        return nOrder;
+    }
+
+    int getParent()
+    {
+        return nParent;
+    }
+
+    /**
+     * Lo que hay en memoria es lo mismo que hay en la DB (se acaba de leer o
+     * de grabar).
+     *
+     * @param nOrder Posición en la DB.
+     * @param nParent Id de la categoría en la DB (para las categorías no se usa).
+     * @param sIconHash Hash del icono que hay en la DB (puede ser null).
+     */
+    void setClean( int nOrder, int nParent, String sIconHash )
+    {
+        this.nOrder     = nOrder;
+        this.nParent    = nParent;
+        this.sIconHash  = sIconHash;
+        this.bDirty     = false;
+        this.bIconDirty = false;
+    }
+
+    /**
+     * El icono está en la DB (su hash es el que se pasó a setClean(...)): se
+     * cargará cuando se pida.
+     * <p>
+     * Si el icono estaba en memoria (se acaba de grabar), pasa a la caché del
+     * loader: allí ya no se mantiene durante toda la vida del proceso, sino
+     * mientras quepa.
+     */
+    void setIconLoader( IconLoader loader )
+    {
+        if( icon != null )
+        {
+            loader.put( sIconHash, icon );
+        }
+
+        if( mapThumbnails != null )
+        {
+            for( Map.Entry<Thumbnail,SharedIcon> entry : mapThumbnails.entrySet() )
+                loader.put( IconLoader.toKey( sIconHash, entry.getKey() ), entry.getValue() );
+        }
+
+        this.icon          = null;
+        this.iconLoader    = loader;
+        this.asThumbKeys   = new String[ Thumbnail.values().length ];
+        this.mapThumbnails = null;
+
+        for( Thumbnail type : Thumbnail.values() )    // Se calculan una sola vez (no en cada repintado)
+            asThumbKeys[ type.ordinal() ] = IconLoader.toKey( sIconHash, type );
+    }
+
+    //------------------------------------------------------------------------//
+
+    private static boolean isEqual( String s1, String s2 )
+    {
+        return (s1 == null) ? (s2 == null) : s1.equals( s2 );
+    }
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Diccionario de nombres de producto (tabla nombres_producto).
+ * <p>
+ * Las líneas de los tickets (tabla ventas_detalle) no guardan el nombre del
+ * producto sino su id en el diccionario: la tabla más grande de la DB ocupa
+ * mucho menos y, al leer tickets, todas las líneas de un mismo producto
+ * comparten la misma instancia de String en lugar de crear una por línea.
+ * <p>
+ * El diccionario es pequeño (cientos de nombres como mucho), así que se
+ * mantiene completo en memoria. Sólo esta clase añade nombres, por lo que la
+ * copia en memoria siempre está al día; para añadirlos utiliza su propia
+ * Connection en modo autocommit, así un nombre nuevo queda grabado aunque la
+ * transacción del ticket que lo necesitaba se deshaga (un nombre que no se
+ * usa no hace ningún daño).
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class ProductNames
+{
+    private final Connection          dbConn;
+    private final PreparedStatement   psInsert;
+    private final PreparedStatement   psSelect;
+    private final Map<String,Integer> mapIds   = new ConcurrentHashMap<String,Integer>();
+    private final Map<Integer,String> mapNames = new ConcurrentHashMap<Integer,String>();
+
+    //------------------------------------------------------------------------//
+
+    ProductNames( Connection conn ) throws SQLException
+    {
+        dbConn   = conn;
+        psInsert = dbConn.prepareStatement( "INSERT INTO APP.nombres_producto (nombre) VALUES (?)",
+                                            Statement.RETURN_GENERATED_KEYS );
+        psSelect = dbConn.prepareStatement( "SELECT id_nombre, nombre FROM APP.nombres_producto" );
+
+        ResultSet rs = psSelect.executeQuery();
+
+        while( rs.next() )
+        {
+            put( rs.getInt( 1 ), rs.getString( 2 ) );
+        }
+
+        rs.close();
+    }
+
+    /**
+     * Retorna el id del nombre, añadiéndolo al diccionario si no estaba.
+     *
+     * @param sName Nombre del producto
+     * @return Su id en el diccionario
+     * @throws SQLException
+     */
+    int getId( String sName ) throws SQLException
+    {
+        Integer nId = mapIds.get( sName );
+
+        return (nId != null ? nId : add( sName ));
+    }
+
+    /**
+     * Retorna el nombre que corresponde al id: siempre la misma instancia.
+     *
+     * @param nId Id en el diccionario
+     * @return El nombre del producto
+     */
+    String getName( int nId )
+    {
+        return mapNames.get( nId );
+    }
+
+    synchronized void close() throws SQLException
+    {
+        dbConn.close();    // dbConn.close() cierra automáticamente todos los recursos asociados
+    }
+
+    //------------------------------------------------------------------------//
+
+    private synchronized int add( String sName ) throws SQLException
+    {
+        Integer nId = mapIds.get( sName );    // Puede que otro thread lo acabe de añadir
+
+        if( nId == null )
+        {
+            psInsert.setString( 1, sName );
+            psInsert.executeUpdate();
+
+            ResultSet rs = psInsert.getGeneratedKeys();
+
+            rs.next();    // Sólo hay un record en este ResultSet
+            nId = rs.getInt( 1 );
+            rs.close();
+
+            put( nId, sName );
+        }
+
+        return nId;
+    }
+
+    private void put( int nId, String sName )
+    {
+        mapNames.put( nId, sName );    // Primero éste: quien encuentre el id, encontrará el nombre
+        mapIds.put( sName, nId );
+    }
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Clase Entidad (Entity Class) que representa las ventas de una hora de un día
+ * con un modo de pago: nº de tickets y total facturado.
+ * <p>
+ * En la implementación por defecto del repositorio de datos se utiliza una
+ * base de datos Derby y en este caso, esta entidad se corresponde con la tabla
+ * "Resumen_ventas".
+ *
+ * @author Francisco Morero Peyrona
+ */
+public final class SalesSummary
+{
+    private final Date         day;
+    private final int          nHour;
+    private final Bill.Payment payment;
+    private final int          nBills;
+    private final BigDecimal   nTotal;
+
+    SalesSummary( Date day, int nHour, Bill.Payment payment, int nBills, BigDecimal nTotal )
+    {
+        this.day     = day;
+        this.nHour   = nHour;
+        this.payment = payment;
+        this.nBills  = nBills;
+        this.nTotal  = nTotal;
+    }
+
+    //------------------------------------------------------------------------//
+    // PUBLIC INTERFACE
+
+    /**
+     * @return El día (sin hora)
+     */
+    public Date getDay()
+    {
+        return day;
+    }
+
+    /**
+     * @return La hora del día (de 0 a 23)
+     */
+    public int getHour()
+    {
+        return nHour;
+    }
+
+    public Bill.Payment getPayment()
+    {
+        return payment;
+    }
+
+    /**
+     * @return Nº de tickets
+     */
+    public int getBills()
+    {
+        return nBills;
+    }
+
+    public BigDecimal getTotal()
+    {
+        return nTotal;
+    }
+}
\ No newline at end of file
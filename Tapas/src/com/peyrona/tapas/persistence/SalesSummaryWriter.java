@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import com.peyrona.tapas.Money;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mantiene al día las tablas resumen_ventas y resumen_productos.
+ * <p>
+ * Trabaja con la Connection de BillsWriter, por lo que los cambios en el
+ * resumen forman parte de la misma transacción que los cambios en los tickets.
+ * Como BillsWriter es el único que graba tickets (y todos sus métodos son
+ * synchronized) no puede haber dos threads insertando la misma fila a la vez:
+ * basta con un UPDATE y, si no había fila, un INSERT.
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class SalesSummaryWriter
+{
+    private final PreparedStatement psUpdateSales;
+    private final PreparedStatement psInsertSales;
+    private final PreparedStatement psUpdateUnits;
+    private final PreparedStatement psInsertUnits;
+    private final Calendar          calendar = Calendar.getInstance();
+
+    //------------------------------------------------------------------------//
+
+    SalesSummaryWriter( Connection dbConn ) throws SQLException
+    {
+        psUpdateSales = dbConn.prepareStatement( "UPDATE APP.resumen_ventas SET tickets = tickets + ?, total = total + ?"+
+                                                 " WHERE dia = ? AND hora = ? AND modo_pago = ?" );
+
+        psInsertSales = dbConn.prepareStatement( "INSERT INTO APP.resumen_ventas"+
+                                                 " (tickets, total, dia, hora, modo_pago) VALUES (?,?,?,?,?)" );
+
+        psUpdateUnits = dbConn.prepareStatement( "UPDATE APP.resumen_productos SET unidades = unidades + ?"+
+                                                 " WHERE dia = ? AND hora = ? AND modo_pago = ? AND producto = ?" );
+
+        psInsertUnits = dbConn.prepareStatement( "INSERT INTO APP.resumen_productos"+
+                                                 " (unidades, dia, hora, modo_pago, producto) VALUES (?,?,?,?,?)" );
+    }
+
+    /**
+     * Suma un ticket al resumen.
+     *
+     * @param tsWhen   Cuándo se grabó el ticket (columna ventas.cuando).
+     * @param nPayMode Modo de pago (columna ventas.modo_pago).
+     * @param nTotal   Total del ticket en unidades mínimas de la moneda (columna ventas.total).
+     * @param lines    Líneas del ticket.
+     */
+    void add( Timestamp tsWhen, int nPayMode, long nTotal, List<BillLine> lines ) throws SQLException
+    {
+        apply( tsWhen, nPayMode, nTotal, lines, 1 );
+    }
+
+    /**
+     * Resta un ticket del resumen (los parámetros son los de add(...)).
+     */
+    void subtract( Timestamp tsWhen, int nPayMode, long nTotal, List<BillLine> lines ) throws SQLException
+    {
+        apply( tsWhen, nPayMode, nTotal, lines, -1 );
+    }
+
+    //------------------------------------------------------------------------//
+
+    private void apply( Timestamp tsWhen, int nPayMode, long nTotal, List<BillLine> lines, int nSign ) throws SQLException
+    {
+        calendar.setTimeInMillis( tsWhen.getTime() );
+
+        int nHour = calendar.get( Calendar.HOUR_OF_DAY );
+
+        calendar.set( Calendar.HOUR_OF_DAY, 0 );
+        calendar.set( Calendar.MINUTE     , 0 );
+        calendar.set( Calendar.SECOND     , 0 );
+        calendar.set( Calendar.MILLISECOND, 0 );
+
+        java.sql.Date day    = new java.sql.Date( calendar.getTimeInMillis() );
+        BigDecimal    amount = Money.toBigDecimal( nSign * nTotal );
+
+        // Totales por hora y modo de pago
+        psUpdateSales.setInt(        1, nSign );
+        psUpdateSales.setBigDecimal( 2, amount );
+        psUpdateSales.setDate(       3, day );
+        psUpdateSales.setInt(        4, nHour );
+        psUpdateSales.setInt(        5, nPayMode );
+
+        if( psUpdateSales.executeUpdate() == 0 )
+        {
+            psInsertSales.setInt(        1, nSign );
+            psInsertSales.setBigDecimal( 2, amount );
+            psInsertSales.setDate(       3, day );
+            psInsertSales.setInt(        4, nHour );
+            psInsertSales.setInt(        5, nPayMode );
+            psInsertSales.executeUpdate();
+        }
+
+        // Unidades por producto (en la misma hora y modo de pago que el ticket): un
+        // mismo producto puede estar en varias líneas
+        Map<String,Integer> mapUnits = new HashMap<String,Integer>();
+
+        for( BillLine line : lines )
+        {
+            Integer nUnits = mapUnits.get( line.getItem() );
+
+            mapUnits.put( line.getItem(), (nUnits == null ? 0 : nUnits) + line.getQuantity() );
+        }
+
+        for( Map.Entry<String,Integer> entry : mapUnits.entrySet() )
+        {
+            psUpdateUnits.setInt(    1, nSign * entry.getValue() );
+            psUpdateUnits.setDate(   2, day );
+            psUpdateUnits.setInt(    3, nHour );
+            psUpdateUnits.setInt(    4, nPayMode );
+            psUpdateUnits.setString( 5, entry.getKey() );
+
+            if( psUpdateUnits.executeUpdate() == 0 )
+            {
+                psInsertUnits.setInt(    1, nSign * entry.getValue() );
+                psInsertUnits.setDate(   2, day );
+                psInsertUnits.setInt(    3, nHour );
+                psInsertUnits.setInt(    4, nPayMode );
+                psInsertUnits.setString( 5, entry.getKey() );
+                psInsertUnits.executeUpdate();
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Image;
+import javax.swing.Icon;
+
+/**
+ * Icono inmutable que se puede compartir: lo utilizan Product e IconLoader
+ * para que los renderers (que piden el icono cada vez que pintan) no tengan
+ * que crear un ImageIcon nuevo en cada llamada.
+ * <p>
+ * A diferencia de ImageIcon, no tiene métodos para cambiar la imagen ni
+ * utiliza un MediaTracker: la imagen tiene que estar ya cargada (como lo están
+ * las que se decodifican de la DB o las BufferedImage).
+ * La imagen retornada por getImage() no debe modificarse.
+ *
+ * @author Francisco Morero Peyrona
+ */
+public final class SharedIcon implements Icon
+{
+    private final Image image;
+    private final int   nWidth;
+    private final int   nHeight;
+
+    //------------------------------------------------------------------------//
+
+    public SharedIcon( Image image )
+    {
+        this.image   = image;
+        this.nWidth  = image.getWidth(  null );
+        this.nHeight = image.getHeight( null );
+    }
+
+    public Image getImage()
+    {
+        return image;
+    }
+
+    @Override
+    public int getIconWidth()
+    {
+        return nWidth;
+    }
+
+    @Override
+    public int getIconHeight()
+    {
+        return nHeight;
+    }
+
+    @Override
+    public void paintIcon( Component c, Graphics g, int x, int y )
+    {
+        g.drawImage( image, x, y, c );
+    }
+}
\ No newline at end of file
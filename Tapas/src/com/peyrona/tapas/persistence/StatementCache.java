@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+ *
+ * This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+ *
+ * GNU Classpath is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the free
+ * Software Foundation; either version 3, or (at your option) any later version.
+ *
+ * Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.peyrona.tapas.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caché de PreparedStatements de una Connection.
+ * <p>
+ * Derby compila cada sentencia SQL la primera vez que se prepara: guardando
+ * aquí los PreparedStatement (la clave es el propio texto SQL), las siguientes
+ * veces que se necesita la misma sentencia no hay que volver a compilarla.
+ * <p>
+ * Un PreparedStatement sólo puede ser utilizado por un thread a la vez, por lo
+ * que esta caché, igual que la Connection a la que pertenece, no debe
+ * compartirse entre threads.
+ *
+ * @author Francisco Morero Peyrona
+ */
+final class StatementCache
+{
+    private final Connection                     dbConn;
+    private final Map<String, PreparedStatement> map = new HashMap<String, PreparedStatement>();
+
+    //------------------------------------------------------------------------//
+
+    StatementCache( Connection conn )
+    {
+        dbConn = conn;
+    }
+
+    Connection getConnection()
+    {
+        return dbConn;
+    }
+
+    /**
+     * Retorna el PreparedStatement para la sentencia pasada, preparándolo sólo
+     * si no estaba ya en la caché.
+     *
+     * @param sSQL Sentencia SQL (con los parámetros como '?')
+     * @return El PreparedStatement con los parámetros limpios.
+     * @throws SQLException
+     */
+    PreparedStatement get( String sSQL ) throws SQLException
+    {
+        PreparedStatement ps = map.get( sSQL );
+
+        if( ps == null )
+        {
+            ps = dbConn.prepareStatement( sSQL );
+            map.put( sSQL, ps );
+        }
+        else
+        {
+            ps.clearParameters();
+        }
+
+        return ps;
+    }
+
+    /**
+     * Cierra todos los PreparedStatement (pero no la Connection).
+     */
+    void clear()
+    {
+        for( PreparedStatement ps : map.values() )
+        {
+            try{ ps.close(); } catch( SQLException se ) { /* Nada que hacer */ }
+        }
+
+        map.clear();
+    }
+}
\ No newline at end of file
@@ -22,6 +22,9 @@
 --   To access data base:
 --      user     = admin
 --      password = admin
+--
+--   Las tablas añadidas en versiones posteriores están en los ficheros
+--   derby_upgrade_*.sql (ver DataProvider4EmbeddedDerby.upgrade()).
 -- *****************************************************************************
 
 -- -----------------------------------------------------------------------------
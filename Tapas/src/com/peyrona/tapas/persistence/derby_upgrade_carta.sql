@@ -0,0 +1,42 @@
+--------------------------------------------------------------------------------
+-- Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+--
+-- This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+--
+-- GNU Classpath is free software; you can redistribute it and/or modify it
+-- under the terms of the GNU General Public License as published by the free
+-- Software Foundation; either version 3, or (at your option) any later version.
+--
+-- Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+-- WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+-- A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License along with
+-- Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+-- Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+--------------------------------------------------------------------------------
+
+-- *****************************************************************************
+--   TAPAS - CARTA: ORDEN E IDENTIFICADORES ESTABLES
+--------------------------------------------------------------------------------
+--   La Carta ya no se borra y se vuelve a insertar entera cada vez que se
+--   guarda: sólo se graban las categorías y productos que han cambiado, por lo
+--   que los ids ya no indican el orden y hace falta guardarlo.
+--   También se guarda el hash del icono para saber si ha cambiado sin tener
+--   que leerlo (ver Utils.getImageHash(...)).
+--   Las categorías conservan el orden por id que tenían y los productos el
+--   orden alfabético (todos tienen orden 0 hasta que se vuelve a guardar la
+--   Carta).
+-- *****************************************************************************
+
+ALTER TABLE APP.categorias ADD COLUMN orden INTEGER NOT NULL DEFAULT 0;
+
+ALTER TABLE APP.categorias ADD COLUMN icono_hash VARCHAR(40);
+
+ALTER TABLE APP.productos ADD COLUMN orden INTEGER NOT NULL DEFAULT 0;
+
+ALTER TABLE APP.productos ADD COLUMN icono_hash VARCHAR(40);
+
+UPDATE APP.categorias SET orden = id_categoria;
+
+-- ********************************   EOF  *************************************
\ No newline at end of file
@@ -0,0 +1,32 @@
+--------------------------------------------------------------------------------
+-- Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+--
+-- This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+--
+-- GNU Classpath is free software; you can redistribute it and/or modify it
+-- under the terms of the GNU General Public License as published by the free
+-- Software Foundation; either version 3, or (at your option) any later version.
+--
+-- Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+-- WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+-- A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License along with
+-- Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+-- Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+--------------------------------------------------------------------------------
+
+-- *****************************************************************************
+--   TAPAS - DIARIO DE TICKETS (ver BillsJournal)
+--------------------------------------------------------------------------------
+--   Última entrada del diario de tickets que se ha grabado en la DB.
+-- *****************************************************************************
+
+CREATE TABLE APP.diario_ventas(
+   PRIMARY KEY (id_diario),
+   id_diario   INTEGER NOT NULL,
+   secuencia   BIGINT  NOT NULL );
+
+INSERT INTO APP.diario_ventas (id_diario, secuencia) VALUES ( 1, 0 );
+
+-- ********************************   EOF  *************************************
\ No newline at end of file
@@ -0,0 +1,37 @@
+--------------------------------------------------------------------------------
+-- Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+--
+-- This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+--
+-- GNU Classpath is free software; you can redistribute it and/or modify it
+-- under the terms of the GNU General Public License as published by the free
+-- Software Foundation; either version 3, or (at your option) any later version.
+--
+-- Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+-- WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+-- A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License along with
+-- Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+-- Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+--------------------------------------------------------------------------------
+
+-- *****************************************************************************
+--   TAPAS - ALMACÉN DE IMÁGENES (ver ImageStore)
+--------------------------------------------------------------------------------
+--   Cada imagen distinta se guarda una sola vez, con el hash de su contenido
+--   como clave. Las categorías, los productos y la configuración sólo guardan
+--   el hash.
+--   Pasar las imágenes que ya hay a esta tabla (y borrar las columnas BLOB) no
+--   se puede hacer en SQL porque el hash se calcula a partir de los pixels: lo
+--   hace ImageStore.migrate(...) justo después de este script.
+-- *****************************************************************************
+
+CREATE TABLE APP.imagenes(
+   PRIMARY KEY (hash),
+   hash        VARCHAR(40)  NOT NULL,
+   imagen      BLOB         NOT NULL );
+
+ALTER TABLE APP.configuracion ADD COLUMN ticket_imagen_hash VARCHAR(40);
+
+-- ********************************   EOF  *************************************
\ No newline at end of file
@@ -0,0 +1,31 @@
+--------------------------------------------------------------------------------
+-- Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+--
+-- This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+--
+-- GNU Classpath is free software; you can redistribute it and/or modify it
+-- under the terms of the GNU General Public License as published by the free
+-- Software Foundation; either version 3, or (at your option) any later version.
+--
+-- Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+-- WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+-- A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License along with
+-- Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+-- Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+--------------------------------------------------------------------------------
+
+-- *****************************************************************************
+--   TAPAS - MINIATURAS DE LAS IMÁGENES (ver ImageStore y Product.Thumbnail)
+--------------------------------------------------------------------------------
+--   Cada imagen guarda ya reducidas las miniaturas con las que se muestra en
+--   los botones de la Carta y en las tablas de Office. Las de las imágenes que
+--   ya existen se crean (y guardan) la primera vez que se piden.
+-- *****************************************************************************
+
+ALTER TABLE APP.imagenes ADD COLUMN miniatura_boton BLOB;
+
+ALTER TABLE APP.imagenes ADD COLUMN miniatura_tabla BLOB;
+
+-- ********************************   EOF  *************************************
\ No newline at end of file
@@ -0,0 +1,50 @@
+--------------------------------------------------------------------------------
+-- Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+--
+-- This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+--
+-- GNU Classpath is free software; you can redistribute it and/or modify it
+-- under the terms of the GNU General Public License as published by the free
+-- Software Foundation; either version 3, or (at your option) any later version.
+--
+-- Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+-- WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+-- A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License along with
+-- Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+-- Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+--------------------------------------------------------------------------------
+
+-- *****************************************************************************
+--   TAPAS - DICCIONARIO DE NOMBRES DE PRODUCTO (ver ProductNames)
+--------------------------------------------------------------------------------
+--   Las líneas de los tickets (ventas_detalle) pasan a guardar el id del nombre
+--   del producto en lugar del nombre. Los nombres de las líneas ya existentes
+--   se pasan al diccionario.
+-- *****************************************************************************
+
+CREATE TABLE APP.nombres_producto(
+   PRIMARY KEY (id_nombre),
+   id_nombre   INTEGER      GENERATED ALWAYS AS IDENTITY,
+   nombre      VARCHAR(32)  NOT NULL UNIQUE );
+
+INSERT INTO APP.nombres_producto (nombre)
+   SELECT DISTINCT producto FROM APP.ventas_detalle;
+
+ALTER TABLE APP.ventas_detalle ADD COLUMN id_nombre INTEGER;
+
+UPDATE APP.ventas_detalle
+   SET id_nombre = (SELECT n.id_nombre FROM APP.nombres_producto n
+                       WHERE n.nombre = APP.ventas_detalle.producto);
+
+ALTER TABLE APP.ventas_detalle ALTER COLUMN id_nombre NOT NULL;
+
+ALTER TABLE APP.ventas_detalle DROP COLUMN producto;
+
+ALTER TABLE APP.ventas_detalle
+     ADD CONSTRAINT fk_ventas_detalle_nombres
+         FOREIGN KEY (id_nombre)
+         REFERENCES APP.nombres_producto (id_nombre);
+
+-- ********************************   EOF  *************************************
\ No newline at end of file
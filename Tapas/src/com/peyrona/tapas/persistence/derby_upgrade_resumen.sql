@@ -0,0 +1,55 @@
+--------------------------------------------------------------------------------
+-- Copyright (C) 2010 Francisco José Morero Peyrona. All Rights Reserved.
+--
+-- This file is part of Tapas project: http://code.google.com/p/tapas-tpv/
+--
+-- GNU Classpath is free software; you can redistribute it and/or modify it
+-- under the terms of the GNU General Public License as published by the free
+-- Software Foundation; either version 3, or (at your option) any later version.
+--
+-- Tapas is distributed in the hope that it will be useful, but WITHOUT ANY
+-- WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+-- A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License along with
+-- Tapas; see the file COPYING.  If not, write to the Free Software Foundation,
+-- Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+--------------------------------------------------------------------------------
+
+-- *****************************************************************************
+--   TAPAS - RESUMEN DE VENTAS (ver SalesSummaryWriter)
+--------------------------------------------------------------------------------
+--   Totales ya calculados por día, hora y modo de pago, y unidades vendidas de
+--   cada producto por día, hora y modo de pago. Se mantienen en la misma transacción en la que se
+--   graban, modifican o borran los tickets.
+--   Al crearlas se calculan a partir de los tickets que ya hay en la DB.
+-- *****************************************************************************
+
+CREATE TABLE APP.resumen_ventas(
+   PRIMARY KEY (dia, hora, modo_pago),
+   dia         DATE          NOT NULL,
+   hora        SMALLINT      NOT NULL,
+   modo_pago   INTEGER       NOT NULL,
+   tickets     INTEGER       NOT NULL,
+   total       NUMERIC(12,2) NOT NULL );
+
+CREATE TABLE APP.resumen_productos(
+   PRIMARY KEY (dia, hora, modo_pago, producto),
+   dia         DATE          NOT NULL,
+   hora        SMALLINT      NOT NULL,
+   modo_pago   INTEGER       NOT NULL,
+   producto    VARCHAR(32)   NOT NULL,
+   unidades    INTEGER       NOT NULL );
+
+INSERT INTO APP.resumen_ventas (dia, hora, modo_pago, tickets, total)
+   SELECT DATE(cuando), HOUR(cuando), modo_pago, COUNT(*), SUM(total)
+      FROM APP.ventas
+      GROUP BY DATE(cuando), HOUR(cuando), modo_pago;
+
+INSERT INTO APP.resumen_productos (dia, hora, modo_pago, producto, unidades)
+   SELECT DATE(v.cuando), HOUR(v.cuando), v.modo_pago, d.producto, SUM(d.cantidad)
+      FROM APP.ventas v, APP.ventas_detalle d
+      WHERE v.id_venta = d.id_venta
+      GROUP BY DATE(v.cuando), HOUR(v.cuando), v.modo_pago, d.producto;
+
+-- ********************************   EOF  *************************************
\ No newline at end of file
@@ -18,15 +18,24 @@
 
 package com.peyrona.tapas.swing;
 
+import com.peyrona.tapas.Utils;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Image;
+import java.awt.EventQueue;
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import javax.imageio.ImageIO;
 import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
@@ -36,13 +45,45 @@ import javax.swing.JPanel;
 
 /**
  * El preview que se utiliza con JFileChooser para previsualizar imágenes.
+ * <p>
+ * Las imágenes se decodifican y se reducen en un thread en background: al
+ * recorrer una carpeta de fotos el JFileChooser no se bloquea, y si la
+ * selección cambia antes de que se termine, lo pendiente se cancela. Las
+ * últimas previews se guardan en una pequeña caché (compartida por todos los
+ * JFileChooser), por lo que volver a pasar por las mismas imágenes es
+ * inmediato.
  *
  * @author Francisco Morero Peyrona
  */
 final class ImagePreviewPanel extends JPanel implements PropertyChangeListener
 {
-    private JLabel        lblImage;
-    private BufferedImage buffImage;
+    // Nº de previews que se mantienen en memoria (cada una ocupa unos 200x200 pixels)
+    private static final int nCACHE_SIZE = 32;
+
+    private static final Map<String,ImageIcon> mapCache = new LinkedHashMap<String,ImageIcon>( 16, .75f, true )    // true == ordenado por acceso (LRU)
+                                                          {
+                                                              @Override
+                                                              protected boolean removeEldestEntry( Map.Entry<String,ImageIcon> eldest )
+                                                              {
+                                                                  return size() > nCACHE_SIZE;
+                                                              }
+                                                          };
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor( new ThreadFactory()
+                                                    {
+                                                        @Override
+                                                        public Thread newThread( Runnable r )
+                                                        {
+                                                            Thread thread = new Thread( r, "Tapas-Preview" );
+                                                                   thread.setDaemon( true );
+
+                                                            return thread;
+                                                        }
+                                                    } );
+
+    private JLabel                lblImage;
+    private File                  file   = null;    // El seleccionado (sólo se accede desde el EDT)
+    private Future<BufferedImage> future = null;    // La decodificación del seleccionado (null si su preview estaba en la caché)
 
     //------------------------------------------------------------------------//
 
@@ -58,9 +99,37 @@ final class ImagePreviewPanel extends JPanel implements PropertyChangeListener
         add( lblImage, BorderLayout.CENTER );
     }
 
+    /**
+     * Retorna la imagen (completa) del fichero seleccionado: si aún se está
+     * decodificando, espera a que termine y si su preview estaba en la caché,
+     * la lee ahora.
+     *
+     * @return La imagen o null si no hay fichero seleccionado o no es válido.
+     */
     BufferedImage getImage()
     {
-        return buffImage;
+        if( file == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            return ((future == null) ? ImageIO.read( file ) : future.get());
+        }
+        catch( IOException ioe )
+        {
+            return null;    // No se ha podido leer la imagen
+        }
+        catch( ExecutionException ee )
+        {
+            return null;    // No se ha podido leer la imagen
+        }
+        catch( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
     }
 
     @Override
@@ -68,33 +137,87 @@ final class ImagePreviewPanel extends JPanel implements PropertyChangeListener
     {
         if( JFileChooser.SELECTED_FILE_CHANGED_PROPERTY.equals( evt.getPropertyName() ) )
         {
-            File      file = (File) evt.getNewValue();
-            ImageIcon icon = null;
+            if( future != null )
+            {
+                future.cancel( true );    // Ya no hace falta
+            }
+
+            file   = (File) evt.getNewValue();
+            future = null;
 
-            if( (file != null) && (new ImageFilter().accept( file )) )
+            if( (file == null) || (! file.isFile()) || (! new ImageFilter().accept( file )) )
             {
-                try
-                {
-                    buffImage = ImageIO.read( file );
+                file = null;
+                lblImage.setIcon( null );
+                return;
+            }
+
+            String    sKey = file.getAbsolutePath() +'|'+ file.lastModified();
+            ImageIcon icon;
 
-                    float nWidth  = buffImage.getWidth();
-                    float nHeight = buffImage.getHeight();
-                    float nScale  = nHeight / nWidth;
+            synchronized( mapCache )
+            {
+                icon = mapCache.get( sKey );
+            }
 
-                    nWidth = getPreferredSize().width;
+            lblImage.setIcon( icon );    // Si no está en la caché, se borra la anterior mientras se decodifica
 
-                    nHeight = (nWidth * nScale);
-                    icon = new ImageIcon( buffImage.getScaledInstance( Math.max( 16, (int)nWidth ),
-                                                                       Math.max( 16, (int)nHeight ),
-                                          Image.SCALE_FAST ) );
-                }
-                catch( IOException e )
+            if( icon == null )
+            {
+                future = executor.submit( new Decoder( file, sKey, getPreferredSize().width ) );
+            }
+        }
+    }
+
+    //------------------------------------------------------------------------//
+    // Inner Class
+    //------------------------------------------------------------------------//
+    // Decodifica la imagen en background, guarda su preview en la caché y la
+    // muestra (si el fichero sigue seleccionado). Retorna la imagen completa.
+    private final class Decoder implements Callable<BufferedImage>
+    {
+        private final File   file;
+        private final String sKey;
+        private final int    nWidth;
+
+        private Decoder( File file, String sKey, int nWidth )
+        {
+            this.file   = file;
+            this.sKey   = sKey;
+            this.nWidth = nWidth;
+        }
+
+        @Override
+        public BufferedImage call() throws IOException
+        {
+            BufferedImage image = ImageIO.read( file );
+
+            if( image == null || Thread.currentThread().isInterrupted() )    // No es una imagen válida o ya no hace falta
+            {
+                return image;
+            }
+
+            float nScale  = (float) image.getHeight() / image.getWidth();
+            int   nHeight = Math.max( 16, (int) (nWidth * nScale) );
+
+            final ImageIcon icon = new ImageIcon( Utils.getThumbnail( image, Math.max( 16, nWidth ), nHeight ) );
+
+            synchronized( mapCache )
+            {
+                mapCache.put( sKey, icon );
+            }
+
+            EventQueue.invokeLater( new Runnable()
+            {
+                @Override
+                public void run()
                 {
-                    // No se ha podido leer la imagen
+                    if( file.equals( ImagePreviewPanel.this.file ) )
+                        lblImage.setIcon( icon );
                 }
-            }
+            } );
 
-            lblImage.setIcon( icon );
+            return image;
         }
     }
 }
\ No newline at end of file
@@ -33,6 +33,17 @@ import javax.swing.JOptionPane;
  */
 public final class SwingUtils
 {
+    // Tamaño máximo (ancho y alto, en pixels) de las imágenes que se importan
+    private static final int nMAX_IMAGE_SIZE = Integer.getInteger( "tapas.images.max_size", 800 );
+
+    /**
+     * Permite elegir un fichero de imagen y la retorna reducida (si es más
+     * grande) a tapas.images.max_size pixels de ancho y de alto, manteniendo la
+     * proporción: una foto de un móvil no tiene que ocupar decenas de MB en
+     * memoria (y en la DB) para verse en un botón.
+     *
+     * @return La imagen o null si no se eligió ninguna.
+     */
     public static BufferedImage ImageChooser()
     {
         BufferedImage     bufImage = null;
@@ -46,7 +57,7 @@ public final class SwingUtils
         if( nAction == JFileChooser.APPROVE_OPTION )
             bufImage = preview.getImage();
 
-        return bufImage;
+        return ((bufImage == null) ? null : downsample( bufImage ));
     }
 
     public static void showError( final Throwable th, final Level level, final String sMessage, final int nExitCode )
@@ -65,4 +76,21 @@ public final class SwingUtils
             }
         } );
     }
+
+    //------------------------------------------------------------------------//
+
+    private static BufferedImage downsample( BufferedImage image )
+    {
+        int nWidth  = image.getWidth();
+        int nHeight = image.getHeight();
+
+        if( nWidth <= nMAX_IMAGE_SIZE && nHeight <= nMAX_IMAGE_SIZE )
+            return image;
+
+        float nScale = Math.min( (float) nMAX_IMAGE_SIZE / nWidth, (float) nMAX_IMAGE_SIZE / nHeight );
+
+        // Utils.getThumbnail(...) retorna un BufferedImage cuando tiene que reducir
+        return (BufferedImage) Utils.getThumbnail( image, Math.max( 1, Math.round( nWidth  * nScale ) ),
+                                                          Math.max( 1, Math.round( nHeight * nScale ) ) );
+    }
 }
\ No newline at end of file